@@ -1,12 +1,12 @@
 import data.DataLoader;
-import data.DataPoint;
+import data.Dataset;
+import data.FeatureScaler;
 import data.Preprocessor;
+import data.Split;
 import models.decisionTree.*;
 import models.logisticRegression.*;
 import models.knn.*;
 
-import java.util.List;
-
 public class Main {
 
     private static String getLabelString(int label) {
@@ -28,17 +28,25 @@ public class Main {
         System.out.println("Step 1: Loading and splitting data...");
         DataLoader loader = new DataLoader();
         String filePath = "Processed.csv";
-        List<DataPoint> allData = loader.loadData(filePath);
+        // Uses the binary feature cache next to the CSV when it is up to date.
+        Dataset allData = loader.loadDatasetCached(filePath);
+
+        // A seeded, stratified split: reproducible, and both sets keep the class balance.
+        // The sets are views of allData, nothing is copied.
+        Split split = Preprocessor.trainTestSplit(allData, 0.8, true, 42L);
+        Dataset trainingSet = split.trainView(allData);
+        Dataset testingSet = split.testView(allData);
 
-        List<List<DataPoint>> splitData = Preprocessor.splitData(allData, 0.8);
-        List<DataPoint> trainingSet = splitData.get(0);
-        List<DataPoint> testingSet = splitData.get(1);
+        // Per-feature mean/variance for the distance/gradient based models, from the training rows only, so
+        // nothing about the testing set leaks into the standardization.
+        FeatureScaler scaler = new FeatureScaler(allData.getFeatureCount(), FeatureScaler.Mode.STANDARDIZE);
+        scaler.fit(trainingSet);
 
         System.out.println("=> Loaded " + allData.size() + " data points.");
         System.out.println("=> Training set size: " + trainingSet.size());
         System.out.println("=> Testing set size: " + testingSet.size());
 
-        int numFeatures = trainingSet.get(0).getFeatureCount();
+        int numFeatures = trainingSet.getFeatureCount();
         int numClasses = 3; // Low, Moderate, High
 
         System.out.println("\nStep 2: Training all models...");
@@ -50,32 +58,38 @@ public class Main {
 
         // Train Logistic Regression
         LogisticRegression logReg = new LogisticRegression(numFeatures, numClasses, 0.01, 100);
+        logReg.setScaler(scaler);
+        // 100 epochs is only the upper bound: training stops once the loss has stopped moving.
+        logReg.setEarlyStopping(1e-4, 3);
         logReg.train(trainingSet);
-        System.out.println("=> Logistic Regression training complete.");
+        System.out.println("=> Logistic Regression training complete (" + logReg.getDataPasses() + " epochs).");
 
         // Train KNN
         KNN knn = new KNN(5); // Using K=5
+        knn.setScaler(scaler);
         knn.train(trainingSet);
         System.out.println("=> KNN training complete (data stored).");
 
         //"Smoke Test"
         System.out.println("\n--- Performing a single prediction test on one unseen student ---");
         if (!testingSet.isEmpty()) {
-            DataPoint studentToTest = testingSet.get(0);
+            int studentToTest = 0; // the first row of the testing set
+            double[] studentFeatures = new double[numFeatures];
+            testingSet.copyRow(studentToTest, studentFeatures);
 
-            System.out.println("  Student Features: " + java.util.Arrays.toString(studentToTest.getFeatures()));
+            System.out.println("  Student Features: " + java.util.Arrays.toString(studentFeatures));
             System.out.println("--------------------------------------------------");
-            System.out.println("  Actual Label:       " + getLabelString(studentToTest.getLabel()));
+            System.out.println("  Actual Label:       " + getLabelString(testingSet.getLabel(studentToTest)));
             System.out.println("--------------------------------------------------");
 
             // Get a prediction from each model
-            int dtPrediction = tree.predict(studentToTest);
+            int dtPrediction = tree.predict(testingSet, studentToTest);
             System.out.println("  Decision Tree Prediction:     " + getLabelString(dtPrediction));
 
-            int lrPrediction = logReg.predict(studentToTest);
+            int lrPrediction = logReg.predict(testingSet, studentToTest);
             System.out.println("  Logistic Regression Prediction: " + getLabelString(lrPrediction));
 
-            int knnPrediction = knn.predict(studentToTest);
+            int knnPrediction = knn.predict(testingSet, studentToTest);
             System.out.println("  KNN (k=5) Prediction:         " + getLabelString(knnPrediction));
 
         } else {
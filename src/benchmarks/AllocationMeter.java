@@ -0,0 +1,42 @@
+package benchmarks;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Times a piece of work and counts the bytes the calling thread allocates while it runs. Work done on other
+ * threads (a parallel loader, a ForkJoin pool) is timed but its allocations are not counted.
+ */
+final class AllocationMeter {
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * The work to measure. It returns a result that depends on what it did, so the JIT can not throw the work
+     * away.
+     */
+    interface Work<E extends Exception> {
+        long run() throws E;
+    }
+
+    private AllocationMeter() {
+    }
+
+    /**
+     * Runs the work once.
+     * @return {elapsed nanoseconds, bytes allocated by the calling thread}.
+     */
+    static <E extends Exception> long[] measure(Work<E> work) throws E {
+        long threadId = Thread.currentThread().threadId();
+        long allocatedBefore = THREADS.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        long result = work.run();
+        long elapsed = System.nanoTime() - start;
+        long allocated = THREADS.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        // Printing the result keeps the JIT from throwing the work away.
+        if (result == Long.MIN_VALUE) {
+            System.out.println(result);
+        }
+        return new long[] {elapsed, allocated};
+    }
+}
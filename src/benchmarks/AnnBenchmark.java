@@ -0,0 +1,94 @@
+package benchmarks;
+
+import data.DataLoader;
+import data.Dataset;
+import data.FeatureScaler;
+import models.knn.KNN;
+
+import java.util.Random;
+
+/**
+ * Compares the approximate LSH search of KNN with the exact searches on a large synthetic training set:
+ * query latency, recall@k (how many of the true k nearest neighbors are found) and how often the predicted
+ * class agrees with the exact prediction, for a few settings of the LSH knobs.
+ *
+ * The training rows are synthesized from Processed.csv like in KnnBenchmark.
+ *
+ * Usage: java benchmarks.AnnBenchmark [csvPath] [trainingRows] [k] [queries]
+ */
+public class AnnBenchmark {
+
+    // {numTables, hashesPerTable, bucketWidth}
+    private static final double[][] LSH_SETTINGS = {
+            {4, 8, 1.0},
+            {8, 8, 1.0},
+            {4, 8, 2.0},
+            {8, 8, 2.0},
+            {16, 8, 2.0},
+            {8, 6, 2.0},
+    };
+
+    public static void main(String[] args) {
+        String sourcePath = args.length > 0 ? args[0] : "Processed.csv";
+        int trainingRows = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        int k = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        int queries = args.length > 3 ? Integer.parseInt(args[3]) : 1_000;
+
+        FeatureScaler scaler = new FeatureScaler(7, FeatureScaler.Mode.STANDARDIZE);
+        Dataset source = Dataset.fromDataPoints(new DataLoader().loadData(sourcePath, scaler));
+        Random random = new Random(42);
+        Dataset training = KnnBenchmark.synthesize(source, trainingRows, random);
+        Dataset queryRows = KnnBenchmark.synthesize(source, queries, random);
+
+        System.out.println("--- Approximate KNN: " + trainingRows + " training rows, k=" + k + ", " + queries + " queries ---");
+        System.out.printf("%-24s %10s %14s %10s %12s%n", "search", "build ms", "latency", "recall@" + k, "agreement");
+
+        KNN exact = new KNN(k);
+        exact.setScaler(scaler);
+        exact.setSearchMode(KNN.SearchMode.BRUTE_FORCE);
+        exact.train(training);
+        int[] expected = new int[queries];
+        double bruteMicros = time(exact, queryRows, expected);
+        System.out.printf("%-24s %10s %11.1f us %10.3f %12.3f%n", "brute force", "-", bruteMicros, 1.0, 1.0);
+
+        run("k-d tree", k, scaler, training, queryRows, expected, KNN.SearchMode.KD_TREE, null);
+        for (double[] setting : LSH_SETTINGS) {
+            String name = String.format("LSH L=%d m=%d w=%.1f", (int) setting[0], (int) setting[1], setting[2]);
+            run(name, k, scaler, training, queryRows, expected, KNN.SearchMode.LSH, setting);
+        }
+    }
+
+    private static void run(String name, int k, FeatureScaler scaler, Dataset training, Dataset queryRows,
+                            int[] expected, KNN.SearchMode mode, double[] lshSetting) {
+        KNN model = new KNN(k);
+        model.setScaler(scaler);
+        model.setSearchMode(mode);
+        if (lshSetting != null) {
+            model.setLshParameters((int) lshSetting[0], (int) lshSetting[1], lshSetting[2]);
+        }
+        long start = System.nanoTime();
+        model.train(training);
+        double buildMillis = (System.nanoTime() - start) / 1e6;
+
+        int[] predicted = new int[queryRows.size()];
+        time(model, queryRows, predicted); // warm-up
+        double micros = time(model, queryRows, predicted);
+        int agreeing = 0;
+        for (int q = 0; q < predicted.length; q++) {
+            if (predicted[q] == expected[q]) {
+                agreeing++;
+            }
+        }
+        System.out.printf("%-24s %10.0f %11.1f us %10.3f %12.3f%n",
+                name, buildMillis, micros, model.measureRecall(queryRows), (double) agreeing / predicted.length);
+    }
+
+    // Predicts every query row and returns the average latency in microseconds.
+    private static double time(KNN model, Dataset queryRows, int[] predictions) {
+        long start = System.nanoTime();
+        for (int q = 0; q < queryRows.size(); q++) {
+            predictions[q] = model.predict(queryRows, q);
+        }
+        return (System.nanoTime() - start) / 1e3 / queryRows.size();
+    }
+}
@@ -0,0 +1,128 @@
+package benchmarks;
+
+import data.CsvTokenizer;
+import data.DataLoader;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Measures CSV ingest throughput (rows/sec) and allocation (bytes/row) of the old regex-split path against
+ * CsvTokenizer, both reading every field and reading only the projected columns, and of the sequential and
+ * parallel DataLoader paths. The allocation column only counts the calling thread, so it is not meaningful
+ * for the parallel loader.
+ *
+ * The rows of the source CSV are repeated until the requested row count is reached, so the numbers reflect
+ * a large export rather than the small sample file.
+ *
+ * Usage: java benchmarks.IngestBenchmark [csvPath] [rows] [rounds]
+ */
+public class IngestBenchmark {
+
+    private static final String LEGACY_SPLIT_REGEX = ",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)";
+
+    public static void main(String[] args) throws IOException {
+        String sourcePath = args.length > 0 ? args[0] : "Processed.csv";
+        int rows = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        Path bigFile = createLargeCsv(sourcePath, rows);
+        try {
+            System.out.println("--- Ingest benchmark: " + rows + " rows, " + (Files.size(bigFile) >> 20) + " MB ---");
+            for (int round = 1; round <= rounds; round++) {
+                System.out.println("Round " + round + ":");
+                report("  regex split (all fields)", rows, AllocationMeter.measure(() -> regexSplit(bigFile)));
+                report("  CsvTokenizer (all fields)", rows, AllocationMeter.measure(() -> tokenize(bigFile)));
+                report("  CsvTokenizer (projected)", rows, AllocationMeter.measure(() -> tokenizeProjected(bigFile)));
+                report("  DataLoader.loadData", rows, AllocationMeter.measure(() -> load(bigFile)));
+                report("  DataLoader.loadDataParallel", rows, AllocationMeter.measure(() -> loadParallel(bigFile)));
+            }
+        } finally {
+            Files.deleteIfExists(bigFile);
+        }
+    }
+
+    private static long regexSplit(Path file) throws IOException {
+        long checksum = 0;
+        try (BufferedReader br = new BufferedReader(new FileReader(file.toFile()))) {
+            br.readLine(); // Skip header
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] values = line.split(LEGACY_SPLIT_REGEX, -1);
+                for (String value : values) {
+                    checksum += value.length();
+                }
+            }
+        }
+        return checksum;
+    }
+
+    private static long tokenize(Path file) throws IOException {
+        long checksum = 0;
+        try (InputStream in = new FileInputStream(file.toFile())) {
+            CsvTokenizer tokenizer = new CsvTokenizer(in);
+            tokenizer.nextRow(); // Skip header
+            while (tokenizer.nextRow()) {
+                for (int i = 0; i < tokenizer.getFieldCount(); i++) {
+                    checksum += tokenizer.getField(i).length();
+                }
+            }
+        }
+        return checksum;
+    }
+
+    private static long tokenizeProjected(Path file) throws IOException {
+        double checksum = 0;
+        try (InputStream in = new FileInputStream(file.toFile())) {
+            CsvTokenizer tokenizer = new CsvTokenizer(in);
+            tokenizer.setProjection(26, 37);
+            tokenizer.nextRow(); // Skip header
+            while (tokenizer.nextRow()) {
+                checksum += tokenizer.getDouble(26) + tokenizer.getDouble(37);
+            }
+        }
+        return (long) checksum;
+    }
+
+    private static long load(Path file) {
+        List<?> data = new DataLoader().loadData(file.toString());
+        return data.size();
+    }
+
+    private static long loadParallel(Path file) {
+        List<?> data = new DataLoader().loadDataParallel(file.toString());
+        return data.size();
+    }
+
+    // =================================================================
+    // HELPER METHODS
+    // =================================================================
+
+    private static void report(String name, int rows, long[] measurement) {
+        double seconds = measurement[0] / 1e9;
+        System.out.printf("%-30s %8.1f ms  %,12.0f rows/sec  %,8.0f bytes/row%n",
+                name, measurement[0] / 1e6, rows / seconds, (double) measurement[1] / rows);
+    }
+
+    static Path createLargeCsv(String sourcePath, int rows) throws IOException {
+        List<String> lines = Files.readAllLines(Path.of(sourcePath));
+        Path file = Files.createTempFile("ingest-benchmark", ".csv");
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(file.toFile()))) {
+            out.write(lines.get(0));
+            out.newLine();
+            for (int i = 0; i < rows; i++) {
+                out.write(lines.get(1 + i % (lines.size() - 1)));
+                out.newLine();
+            }
+        }
+        return file;
+    }
+}
@@ -0,0 +1,193 @@
+package benchmarks;
+
+import data.DataLoader;
+import data.Dataset;
+import data.FeatureScaler;
+import models.knn.KNN;
+
+import java.util.Random;
+
+/**
+ * Measures KNN query latency against the training set size, for the brute-force search and the k-d tree,
+ * and checks that both return the same prediction for every query. Then compares the throughput of
+ * predict() in a loop with predictBatch() on all cores, and finally the brute-force search with and without
+ * collapsing identical training rows.
+ *
+ * Processed.csv only has about 2,000 students, so larger training sets are synthesized: every feature of a
+ * synthetic student is drawn from the values of that feature in the real data. The features are
+ * standardized, like in Main.
+ *
+ * Usage: java benchmarks.KnnBenchmark [csvPath] [k] [queries]
+ */
+public class KnnBenchmark {
+
+    private static final int[] TRAINING_SIZES = {1_000, 10_000, 100_000, 300_000};
+
+    public static void main(String[] args) {
+        String sourcePath = args.length > 0 ? args[0] : "Processed.csv";
+        int k = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int queries = args.length > 2 ? Integer.parseInt(args[2]) : 2_000;
+
+        FeatureScaler scaler = new FeatureScaler(7, FeatureScaler.Mode.STANDARDIZE);
+        Dataset source = Dataset.fromDataPoints(new DataLoader().loadData(sourcePath, scaler));
+        Random random = new Random(42);
+        Dataset queryRows = synthesize(source, queries, random);
+
+        System.out.println("--- KNN benchmark: k=" + k + ", " + queries + " queries ---");
+        System.out.printf("%10s %18s %18s %10s %12s%n", "rows", "brute force", "k-d tree", "speedup", "mismatches");
+        for (int size : TRAINING_SIZES) {
+            Dataset training = synthesize(source, size, random);
+
+            KNN bruteForce = new KNN(k);
+            bruteForce.setScaler(scaler);
+            bruteForce.setSearchMode(KNN.SearchMode.BRUTE_FORCE);
+            bruteForce.train(training);
+
+            KNN kdTree = new KNN(k);
+            kdTree.setScaler(scaler);
+            kdTree.setSearchMode(KNN.SearchMode.KD_TREE);
+            kdTree.train(training);
+
+            // The brute-force path is slow on large sets, so it answers fewer queries there.
+            int bruteQueries = (int) Math.max(50, Math.min(queries, 20_000_000L / size));
+            int[] expected = new int[bruteQueries];
+            double[] features = new double[queryRows.getFeatureCount()];
+
+            warmUp(bruteForce, queryRows, Math.min(bruteQueries, 200));
+            long start = System.nanoTime();
+            for (int q = 0; q < bruteQueries; q++) {
+                queryRows.copyRow(q, features);
+                expected[q] = bruteForce.predict(features);
+            }
+            double bruteMicros = (System.nanoTime() - start) / 1e3 / bruteQueries;
+
+            warmUp(kdTree, queryRows, Math.min(queries, 2_000));
+            int mismatches = 0;
+            start = System.nanoTime();
+            for (int q = 0; q < queries; q++) {
+                queryRows.copyRow(q, features);
+                int predicted = kdTree.predict(features);
+                if (q < bruteQueries && predicted != expected[q]) {
+                    mismatches++;
+                }
+            }
+            double treeMicros = (System.nanoTime() - start) / 1e3 / queries;
+
+            System.out.printf("%,10d %15.1f us %15.1f us %9.1fx %12d%n",
+                    size, bruteMicros, treeMicros, bruteMicros / treeMicros, mismatches);
+        }
+
+        int batchSize = 100_000;
+        Dataset training = synthesize(source, batchSize, random);
+        Dataset batch = synthesize(source, queries * 10, random);
+        System.out.println();
+        System.out.println("--- Batch scoring: " + batch.size() + " queries against " + batchSize + " rows, "
+                + Runtime.getRuntime().availableProcessors() + " cores ---");
+        System.out.printf("%-12s %18s %18s %10s %12s%n", "mode", "predict loop", "predictBatch", "speedup", "mismatches");
+        for (KNN.SearchMode mode : KNN.SearchMode.values()) {
+            KNN model = new KNN(k);
+            model.setScaler(scaler);
+            model.setSearchMode(mode);
+            model.train(training);
+            // The loop only scores a sample in brute-force mode, it would take minutes otherwise.
+            int loopQueries = mode == KNN.SearchMode.BRUTE_FORCE ? Math.min(batch.size(), 2_000) : batch.size();
+
+            warmUp(model, batch, Math.min(loopQueries, 200));
+            int[] expected = new int[loopQueries];
+            long start = System.nanoTime();
+            for (int q = 0; q < loopQueries; q++) {
+                expected[q] = model.predict(batch, q);
+            }
+            double loopRate = loopQueries / ((System.nanoTime() - start) / 1e9);
+
+            model.predictBatch(batch.subset(firstRows(Math.min(batch.size(), 1_000)))); // warm-up
+            start = System.nanoTime();
+            int[] predicted = model.predictBatch(batch);
+            double batchRate = batch.size() / ((System.nanoTime() - start) / 1e9);
+
+            int mismatches = 0;
+            for (int q = 0; q < loopQueries; q++) {
+                if (predicted[q] != expected[q]) {
+                    mismatches++;
+                }
+            }
+            System.out.printf("%-12s %,12.0f q/sec %,12.0f q/sec %9.1fx %12d%n",
+                    mode, loopRate, batchRate, batchRate / loopRate, mismatches);
+        }
+
+        System.out.println();
+        System.out.println("--- Duplicate collapsing (brute force, " + queries + " queries) ---");
+        System.out.printf("%10s %12s %18s %18s %10s %12s%n", "rows", "distinct", "every row", "collapsed", "speedup", "mismatches");
+        for (Dataset rows : new Dataset[] {source, synthesize(source, 100_000, random)}) {
+            KNN everyRow = new KNN(k);
+            everyRow.setScaler(scaler);
+            everyRow.setSearchMode(KNN.SearchMode.BRUTE_FORCE);
+            everyRow.setCollapseDuplicates(false);
+            everyRow.train(rows);
+
+            KNN collapsed = new KNN(k);
+            collapsed.setScaler(scaler);
+            collapsed.setSearchMode(KNN.SearchMode.BRUTE_FORCE);
+            collapsed.train(rows);
+
+            int dedupQueries = (int) Math.max(50, Math.min(queries, 20_000_000L / rows.size()));
+            int[] expected = new int[dedupQueries];
+            double[] features = new double[queryRows.getFeatureCount()];
+            warmUp(everyRow, queryRows, Math.min(dedupQueries, 200));
+            long start = System.nanoTime();
+            for (int q = 0; q < dedupQueries; q++) {
+                queryRows.copyRow(q, features);
+                expected[q] = everyRow.predict(features);
+            }
+            double everyRowMicros = (System.nanoTime() - start) / 1e3 / dedupQueries;
+
+            warmUp(collapsed, queryRows, Math.min(dedupQueries, 200));
+            int mismatches = 0;
+            start = System.nanoTime();
+            for (int q = 0; q < dedupQueries; q++) {
+                queryRows.copyRow(q, features);
+                if (collapsed.predict(features) != expected[q]) {
+                    mismatches++;
+                }
+            }
+            double collapsedMicros = (System.nanoTime() - start) / 1e3 / dedupQueries;
+
+            System.out.printf("%,10d %,12d %15.1f us %15.1f us %9.1fx %12d%n", rows.size(), collapsed.getDistinctPointCount(),
+                    everyRowMicros, collapsedMicros, everyRowMicros / collapsedMicros, mismatches);
+        }
+    }
+
+    private static int[] firstRows(int n) {
+        int[] rows = new int[n];
+        for (int i = 0; i < n; i++) {
+            rows[i] = i;
+        }
+        return rows;
+    }
+
+    private static void warmUp(KNN model, Dataset queryRows, int queries) {
+        double[] features = new double[queryRows.getFeatureCount()];
+        int checksum = 0;
+        for (int q = 0; q < queries; q++) {
+            queryRows.copyRow(q, features);
+            checksum += model.predict(features);
+        }
+        if (checksum == Integer.MIN_VALUE) {
+            System.out.println(checksum);
+        }
+    }
+
+    // Creates 'rows' students whose feature values (and label) are each taken from a random real student.
+    static Dataset synthesize(Dataset source, int rows, Random random) {
+        int numFeatures = source.getFeatureCount();
+        double[][] columns = new double[numFeatures][rows];
+        int[] labels = new int[rows];
+        for (int r = 0; r < rows; r++) {
+            for (int f = 0; f < numFeatures; f++) {
+                columns[f][r] = source.getFeature(random.nextInt(source.size()), f);
+            }
+            labels[r] = source.getLabel(random.nextInt(source.size()));
+        }
+        return new Dataset(columns, labels);
+    }
+}
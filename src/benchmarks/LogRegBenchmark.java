@@ -0,0 +1,178 @@
+package benchmarks;
+
+import data.DataLoader;
+import data.Dataset;
+import data.FeatureScaler;
+import data.Preprocessor;
+import data.Split;
+import models.logisticRegression.LogisticRegression;
+
+import java.util.Random;
+
+/**
+ * First measures the throughput of the sequential SGD kernel and how many bytes it allocates per sample (on the
+ * calling thread; it should be 0). Then measures how long LogisticRegression takes to reach a target training loss, for sequential SGD, Hogwild SGD
+ * and synchronous mini-batch descent at growing thread counts.
+ *
+ * The target is 2% above a near-optimal loss, found by running synchronous mini-batch descent for the maximum
+ * number of epochs. (Per-sample SGD at a fixed learning rate keeps bouncing around the optimum and would never
+ * reach a much tighter target.) Every configuration then trains one epoch at a time until its loss is at most
+ * the target (or the epoch limit is hit); only the training time is counted, not the loss evaluation in between.
+ *
+ * Finally compares the stopping rules and solvers on the real train/test split of Processed.csv: the fixed 100
+ * epochs that Main uses, early stopping, learning rate schedules and L-BFGS, by passes over the data, time,
+ * training loss and test accuracy.
+ *
+ * Processed.csv only has about 2,000 students, so the training set is built by drawing real students (with
+ * their labels) at random until the requested size is reached. The features are standardized, like in Main.
+ *
+ * Usage: java benchmarks.LogRegBenchmark [csvPath] [rows] [maxEpochs]
+ */
+public class LogRegBenchmark {
+
+    private static final double TARGET_TOLERANCE = 0.02;
+    private static final double SGD_LEARNING_RATE = 0.01;
+    // The mini-batch step is the average gradient of 1024 rows, so it can take much larger steps.
+    private static final double MINIBATCH_LEARNING_RATE = 0.5;
+    private static final long SEED = 42L;
+    private static final int KERNEL_EPOCHS = 5;
+
+    public static void main(String[] args) {
+        String sourcePath = args.length > 0 ? args[0] : "Processed.csv";
+        int rows = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        int maxEpochs = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        FeatureScaler scaler = new FeatureScaler(7, FeatureScaler.Mode.STANDARDIZE);
+        Dataset source = Dataset.fromDataPoints(new DataLoader().loadData(sourcePath, scaler));
+        Dataset training = resample(source, rows, new Random(SEED));
+
+        measureKernel(scaler, training);
+
+        LogisticRegression reference = newModel(scaler, MINIBATCH_LEARNING_RATE, maxEpochs);
+        reference.setTrainingMode(LogisticRegression.TrainingMode.SYNCHRONOUS_MINIBATCH);
+        reference.train(training);
+        double bestLoss = reference.loss(training);
+        double target = bestLoss * (1 + TARGET_TOLERANCE);
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println("--- Logistic regression: " + rows + " rows, target loss " + String.format("%.5f", target)
+                + " (best found " + String.format("%.5f", bestLoss) + "), " + cores + " cores ---");
+        System.out.printf("%-22s %8s %8s %12s %10s%n", "mode", "threads", "epochs", "time", "loss");
+        run("SEQUENTIAL", LogisticRegression.TrainingMode.SEQUENTIAL, 1, SGD_LEARNING_RATE, scaler, training, target, maxEpochs);
+        for (int threads = 1; threads <= Math.max(8, cores); threads *= 2) {
+            run("HOGWILD", LogisticRegression.TrainingMode.HOGWILD, threads, SGD_LEARNING_RATE, scaler, training, target, maxEpochs);
+        }
+        for (int threads = 1; threads <= Math.max(8, cores); threads *= 2) {
+            run("SYNCHRONOUS_MINIBATCH", LogisticRegression.TrainingMode.SYNCHRONOUS_MINIBATCH, threads, MINIBATCH_LEARNING_RATE,
+                    scaler, training, target, maxEpochs);
+        }
+
+        compareSolvers(source, scaler);
+    }
+
+    private static void compareSolvers(Dataset source, FeatureScaler scaler) {
+        Split split = Preprocessor.trainTestSplit(source, 0.8, true, SEED);
+        Dataset train = split.trainView(source);
+        Dataset test = split.testView(source);
+        System.out.println();
+        System.out.println("--- Solvers on Processed.csv: " + train.size() + " training rows, " + test.size() + " test rows ---");
+        System.out.printf("%-34s %8s %10s %12s %10s%n", "solver", "passes", "time", "train loss", "accuracy");
+
+        LogisticRegression fixed = newModel(scaler, SGD_LEARNING_RATE, 100);
+        reportSolver("SGD, 100 epochs (Main)", fixed, train, test);
+
+        LogisticRegression early = newModel(scaler, SGD_LEARNING_RATE, 100);
+        early.setEarlyStopping(1e-4, 3);
+        reportSolver("SGD, early stopping", early, train, test);
+
+        LogisticRegression inverse = newModel(scaler, 0.05, 100);
+        inverse.setLearningRateSchedule(LogisticRegression.LearningRateSchedule.INVERSE_TIME, 0.5);
+        inverse.setEarlyStopping(1e-4, 3);
+        reportSolver("SGD, inverse-time 0.05, early stop", inverse, train, test);
+
+        LogisticRegression adaptive = newModel(scaler, 0.05, 100);
+        adaptive.setLearningRateSchedule(LogisticRegression.LearningRateSchedule.ADAPTIVE, 0);
+        adaptive.setEarlyStopping(1e-4, 2);
+        reportSolver("SGD, adaptive 0.05", adaptive, train, test);
+
+        LogisticRegression lbfgs = newModel(scaler, SGD_LEARNING_RATE, 100);
+        lbfgs.setSolver(LogisticRegression.Solver.LBFGS);
+        lbfgs.setEarlyStopping(1e-6, 2);
+        reportSolver("L-BFGS", lbfgs, train, test);
+    }
+
+    private static void reportSolver(String name, LogisticRegression model, Dataset train, Dataset test) {
+        long start = System.nanoTime();
+        model.train(train);
+        double millis = (System.nanoTime() - start) / 1e6;
+        int correct = 0;
+        for (int row = 0; row < test.size(); row++) {
+            if (model.predict(test, row) == test.getLabel(row)) {
+                correct++;
+            }
+        }
+        System.out.printf("%-34s %8d %7.1f ms %12.5f %9.1f%%%n", name, model.getDataPasses(), millis,
+                model.loss(train), 100.0 * correct / test.size());
+    }
+
+    private static void measureKernel(FeatureScaler scaler, Dataset training) {
+        newModel(scaler, SGD_LEARNING_RATE, 1).train(training); // warm-up, so the JIT has compiled the kernel
+        LogisticRegression model = newModel(scaler, SGD_LEARNING_RATE, KERNEL_EPOCHS);
+        long[] measurement = AllocationMeter.measure(() -> {
+            model.train(training);
+            return model.getDataPasses();
+        });
+        long elapsed = measurement[0];
+        long allocated = measurement[1];
+        long samples = (long) training.size() * KERNEL_EPOCHS;
+        System.out.println("--- Sequential SGD kernel: " + KERNEL_EPOCHS + " epochs over " + training.size() + " rows ---");
+        System.out.printf("%,.0f samples/sec, %.4f bytes/sample (%,d bytes in total)%n%n",
+                samples / (elapsed / 1e9), (double) allocated / samples, allocated);
+    }
+
+    private static void run(String name, LogisticRegression.TrainingMode mode, int threads, double learningRate,
+                            FeatureScaler scaler, Dataset training, double target, int maxEpochs) {
+        LogisticRegression model = newModel(scaler, learningRate, 1);
+        model.setTrainingMode(mode);
+        model.setThreads(threads);
+        long nanos = 0;
+        int epochs = 0;
+        double loss = Double.POSITIVE_INFINITY;
+        while (epochs < maxEpochs && loss > target) {
+            long start = System.nanoTime();
+            model.train(training);
+            nanos += System.nanoTime() - start;
+            epochs++;
+            loss = model.loss(training);
+        }
+        String time = loss <= target ? String.format("%9.2f s", nanos / 1e9) : "not reached";
+        System.out.printf("%-22s %8d %8d %12s %10.5f%n", name, threads, epochs, time, loss);
+    }
+
+    // Every model starts from the same weights.
+    private static LogisticRegression newModel(FeatureScaler scaler, double learningRate, int epochs) {
+        LogisticRegression model = new LogisticRegression(7, 3, learningRate, epochs, SEED);
+        model.setScaler(scaler);
+        return model;
+    }
+
+    // Draws 'rows' real students (features and label together) at random.
+    private static Dataset resample(Dataset source, int rows, Random random) {
+        int[] picks = new int[rows];
+        for (int r = 0; r < rows; r++) {
+            picks[r] = random.nextInt(source.size());
+        }
+        // Copy the view into columns, so the benchmark does not measure the view's indirection.
+        Dataset view = source.subset(picks);
+        int numFeatures = view.getFeatureCount();
+        double[][] columns = new double[numFeatures][rows];
+        int[] labels = new int[rows];
+        for (int r = 0; r < rows; r++) {
+            for (int f = 0; f < numFeatures; f++) {
+                columns[f][r] = view.getFeature(r, f);
+            }
+            labels[r] = view.getLabel(r);
+        }
+        return new Dataset(columns, labels);
+    }
+}
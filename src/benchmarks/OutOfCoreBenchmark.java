@@ -0,0 +1,121 @@
+package benchmarks;
+
+import data.DataLoader;
+import data.Dataset;
+import data.FeatureScaler;
+import data.RowFile;
+import models.logisticRegression.LogisticRegression;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Trains LogisticRegression out of core, streaming each epoch from a RowFile, and reports the throughput and the
+ * peak heap use during training next to the size of the file.
+ *
+ * First checks on Processed.csv that training on its row file (converted by DataLoader.writeRowFile) gives the
+ * same model as training on the in-memory Dataset. Then writes a large row file of real students drawn at random
+ * (without ever holding the rows in memory) and trains on it in file order and in shuffled-block order.
+ * Run it with a small heap (e.g. -Xmx64m) to see that the file does not have to fit.
+ *
+ * Usage: java benchmarks.OutOfCoreBenchmark [csvPath] [rows] [epochs]
+ */
+public class OutOfCoreBenchmark {
+
+    private static final long SEED = 42L;
+
+    public static void main(String[] args) throws IOException {
+        String sourcePath = args.length > 0 ? args[0] : "Processed.csv";
+        long rows = args.length > 1 ? Long.parseLong(args[1]) : 10_000_000L;
+        int epochs = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+
+        FeatureScaler scaler = new FeatureScaler(7, FeatureScaler.Mode.STANDARDIZE);
+        DataLoader loader = new DataLoader();
+        Dataset source = Dataset.fromDataPoints(loader.loadData(sourcePath));
+        Path smallFile = Files.createTempFile("out-of-core", ".rows");
+        Path bigFile = Files.createTempFile("out-of-core", ".rows");
+        try {
+            loader.writeRowFile(sourcePath, smallFile.toString(), scaler);
+            LogisticRegression inMemory = newModel(scaler, epochs);
+            inMemory.train(source);
+            LogisticRegression streamed = newModel(scaler, epochs);
+            try (RowFile file = RowFile.open(smallFile)) {
+                streamed.train(file);
+            }
+            System.out.println("--- " + sourcePath + ": loss in memory " + inMemory.loss(source)
+                    + ", streamed from the row file " + streamed.loss(source) + " ---");
+
+            writeRandomRows(bigFile, source, rows);
+            System.out.println();
+            System.out.println("--- Out-of-core training: " + rows + " rows, " + (Files.size(bigFile) >> 20) + " MB file, "
+                    + epochs + " epochs, max heap " + (Runtime.getRuntime().maxMemory() >> 20) + " MB ---");
+            System.out.printf("%-16s %14s %16s %14s %10s%n", "order", "time", "rows/sec", "peak heap", "loss");
+            try (RowFile file = RowFile.open(bigFile)) {
+                report("file order", file, scaler, epochs, false);
+                report("shuffled blocks", file, scaler, epochs, true);
+            }
+        } finally {
+            Files.deleteIfExists(smallFile);
+            Files.deleteIfExists(bigFile);
+        }
+    }
+
+    private static void report(String name, RowFile file, FeatureScaler scaler, int epochs, boolean shuffled) {
+        LogisticRegression model = newModel(scaler, epochs);
+        System.gc();
+        resetPeakHeap();
+        long start = System.nanoTime();
+        if (shuffled) {
+            model.train(file, SEED);
+        } else {
+            model.train(file);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long peakHeap = peakHeap();
+        double[] history = model.getLossHistory();
+        System.out.printf("%-16s %12.2f s %,16.0f %11d MB %10.5f%n", name, seconds,
+                file.getRowCount() * (double) epochs / seconds, peakHeap >> 20, history[history.length - 1]);
+    }
+
+    // Streams 'rows' real students drawn at random into a row file, one row at a time.
+    private static void writeRandomRows(Path file, Dataset source, long rows) throws IOException {
+        Random random = new Random(SEED);
+        double[] features = new double[source.getFeatureCount()];
+        try (RowFile.Writer writer = new RowFile.Writer(file, source.getFeatureCount())) {
+            for (long r = 0; r < rows; r++) {
+                int pick = random.nextInt(source.size());
+                source.copyRow(pick, features);
+                writer.addRow(features, source.getLabel(pick));
+            }
+        }
+    }
+
+    private static LogisticRegression newModel(FeatureScaler scaler, int epochs) {
+        LogisticRegression model = new LogisticRegression(7, 3, 0.01, epochs, SEED);
+        model.setScaler(scaler);
+        return model;
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+}
@@ -0,0 +1,95 @@
+package benchmarks;
+
+import data.CsvFollower;
+import data.DataLoader;
+import data.Dataset;
+import data.FeatureScaler;
+import models.logisticRegression.LogisticRegression;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Simulates a survey CSV that keeps growing and compares two ways of keeping LogisticRegression up to date after
+ * every new batch of responses: reading only the new rows with a CsvFollower and calling partialFit(), against
+ * reloading the whole file and training again from scratch (one epoch). The first cost stays flat, the second
+ * grows with the file.
+ *
+ * Every round appends a batch of rows (the rows of the source CSV, repeated) and the first half of one more row,
+ * which the follower must leave for the next round.
+ *
+ * Both models see the same rows in the same order, from the same initial weights, so their losses should be
+ * identical: partialFit() on each new batch continues exactly where the previous pass stopped.
+ *
+ * Usage: java benchmarks.StreamingBenchmark [csvPath] [initialRows] [rowsPerRound] [rounds]
+ */
+public class StreamingBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        String sourcePath = args.length > 0 ? args[0] : "Processed.csv";
+        int initialRows = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        int rowsPerRound = args.length > 2 ? Integer.parseInt(args[2]) : 10_000;
+        int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+
+        List<String> lines = Files.readAllLines(Path.of(sourcePath));
+        Path file = IngestBenchmark.createLargeCsv(sourcePath, initialRows);
+        try {
+            DataLoader loader = new DataLoader();
+            FeatureScaler scaler = new FeatureScaler(7, FeatureScaler.Mode.STANDARDIZE);
+            CsvFollower follower = loader.follow(file.toString());
+            Dataset initial = follower.readNewRows();
+            double[] features = new double[initial.getFeatureCount()];
+            for (int row = 0; row < initial.size(); row++) {
+                initial.copyRow(row, features);
+                scaler.accept(features);
+            }
+            LogisticRegression streaming = newModel(scaler);
+            streaming.train(initial);
+
+            System.out.println("--- Streaming: " + initialRows + " initial rows, " + rowsPerRound + " new rows per round ---");
+            System.out.printf("%6s %12s %10s %16s %16s %12s %12s%n", "round", "total rows", "new rows",
+                    "partialFit", "full retrain", "loss (new)", "loss (full)");
+            String pendingTail = "";
+            int nextLine = initialRows;
+            for (int round = 1; round <= rounds; round++) {
+                // Finish the half-written row of the previous round, add a batch, and leave half a row behind.
+                try (BufferedWriter out = new BufferedWriter(new FileWriter(file.toFile(), true))) {
+                    out.write(pendingTail);
+                    for (int i = 0; i < rowsPerRound; i++) {
+                        out.write(lines.get(1 + nextLine++ % (lines.size() - 1)));
+                        out.newLine();
+                    }
+                    String half = lines.get(1 + nextLine++ % (lines.size() - 1));
+                    out.write(half, 0, half.length() / 2);
+                    pendingTail = half.substring(half.length() / 2) + System.lineSeparator();
+                }
+
+                long start = System.nanoTime();
+                Dataset newRows = follower.readNewRows();
+                streaming.partialFit(newRows);
+                double incrementalMillis = (System.nanoTime() - start) / 1e6;
+
+                start = System.nanoTime();
+                Dataset all = loader.follow(file.toString()).readNewRows(); // every complete row
+                LogisticRegression retrained = newModel(scaler);
+                retrained.train(all);
+                double retrainMillis = (System.nanoTime() - start) / 1e6;
+
+                System.out.printf("%6d %,12d %,10d %13.1f ms %13.1f ms %12.5f %12.5f%n", round, all.size(), newRows.size(),
+                        incrementalMillis, retrainMillis, streaming.loss(all), retrained.loss(all));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static LogisticRegression newModel(FeatureScaler scaler) {
+        LogisticRegression model = new LogisticRegression(7, 3, 0.01, 1, 42L);
+        model.setScaler(scaler);
+        return model;
+    }
+}
@@ -0,0 +1,220 @@
+package benchmarks;
+
+import data.DataLoader;
+import data.Dataset;
+import data.Preprocessor;
+import data.Split;
+import models.decisionTree.DecisionTree;
+
+import java.util.Random;
+
+/**
+ * Measures how long DecisionTree takes to train against the number of rows, with the exact and the histogram
+ * split search: the training time, the bytes allocated while training, the accuracy on the training rows (a
+ * sanity check that the larger trees still learn something) and the share of training rows on which the two
+ * trees agree. Then measures the parallel build against the number of threads, and checks that it makes the
+ * same predictions as the sequential tree on every training row. Finally measures the prediction latency of
+ * trees of growing depth: predict() on a dataset row and on a feature vector, and predictBatch(), with the
+ * interpreted tree and with generated code (setGenerateCode(); TreeCodeGeneratorTest checks that both make the
+ * same predictions). Last, trains on 80% of
+ * Processed.csv with the pruning options (minSamplesLeaf, minImpurityDecrease and cost-complexity pruning) and
+ * reports the node counts before and after pruning, the training time and the accuracy on the other 20%.
+ *
+ * Processed.csv only has about 2,000 students, so larger training sets are built by drawing real students (with
+ * their labels) at random. Every feature of Processed.csv takes only a handful of values (the answers are
+ * encoded categories), which keeps the number of candidate thresholds small. The "continuous" sets add a little
+ * noise to every value, so that nearly every row has its own value, like a measured quantity would.
+ *
+ * Usage: java benchmarks.TreeBenchmark [csvPath] [maxDepth] [minSamplesSplit]
+ */
+public class TreeBenchmark {
+
+    private static final int[] TRAINING_SIZES = {2_000, 20_000, 200_000, 1_000_000};
+    private static final int PARALLEL_ROWS = 1_000_000;
+    private static final int[] PREDICTION_DEPTHS = {5, 10, 15, 20};
+    private static final int PREDICTION_REPEATS = 10;
+    private static final double NOISE = 0.01;
+    private static final int[] MIN_SAMPLES_LEAF = {5, 20};
+    private static final double[] MIN_IMPURITY_DECREASE = {0.001, 0.005};
+    private static final double[] CCP_ALPHAS = {0.0005, 0.001, 0.002, 0.005};
+    private static final long SEED = 42L;
+
+    // Keeps the JIT from dropping the prediction loops.
+    private static long sink;
+
+    public static void main(String[] args) {
+        String sourcePath = args.length > 0 ? args[0] : "Processed.csv";
+        int maxDepth = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int minSamplesSplit = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+
+        Dataset source = Dataset.fromDataPoints(new DataLoader().loadData(sourcePath));
+        Random random = new Random(SEED);
+
+        // Warm-up, so the JIT has compiled the split search before anything is timed.
+        for (DecisionTree.SplitSearch search : DecisionTree.SplitSearch.values()) {
+            newTree(maxDepth, minSamplesSplit, search).train(resample(source, 20_000, NOISE, random));
+        }
+
+        System.out.println("--- Decision tree training: maxDepth=" + maxDepth + ", minSamplesSplit=" + minSamplesSplit + " ---");
+        System.out.printf("%-12s %10s %12s %12s %12s %12s %10s %10s %10s%n", "values", "rows", "exact", "histogram",
+                "exact mem", "hist mem", "acc exact", "acc hist", "agree");
+        for (double noise : new double[] {0, NOISE}) {
+            for (int size : TRAINING_SIZES) {
+                Dataset training = resample(source, size, noise, random);
+                DecisionTree exact = newTree(maxDepth, minSamplesSplit, DecisionTree.SplitSearch.EXACT);
+                long[] exactCost = train(exact, training);
+                DecisionTree histogram = newTree(maxDepth, minSamplesSplit, DecisionTree.SplitSearch.HISTOGRAM);
+                long[] histogramCost = train(histogram, training);
+                System.out.printf("%-12s %,10d %9.1f ms %9.1f ms %9d MB %9d MB %9.1f%% %9.1f%% %9.1f%%%n",
+                        noise == 0 ? "categories" : "continuous", size, exactCost[0] / 1e6, histogramCost[0] / 1e6,
+                        exactCost[1] >> 20, histogramCost[1] >> 20, 100.0 * accuracy(exact, training),
+                        100.0 * accuracy(histogram, training), 100.0 * agreement(exact, histogram, training));
+            }
+        }
+
+        Dataset training = resample(source, PARALLEL_ROWS, NOISE, random);
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println();
+        System.out.println("--- Parallel build: " + PARALLEL_ROWS + " continuous rows, " + cores + " cores ---");
+        System.out.printf("%-10s %8s %12s %10s %10s%n", "search", "threads", "time", "speedup", "agree");
+        for (DecisionTree.SplitSearch search : DecisionTree.SplitSearch.values()) {
+            DecisionTree sequential = newTree(maxDepth, minSamplesSplit, search);
+            long sequentialNanos = train(sequential, training)[0];
+            System.out.printf("%-10s %8d %9.1f ms %9.2fx %9.1f%%%n", search, 1, sequentialNanos / 1e6, 1.0, 100.0);
+            for (int threads = 2; threads <= Math.max(8, cores); threads *= 2) {
+                DecisionTree tree = newTree(maxDepth, minSamplesSplit, search);
+                tree.setThreads(threads);
+                long nanos = train(tree, training)[0];
+                System.out.printf("%-10s %8d %9.1f ms %9.2fx %9.1f%%%n", search, threads, nanos / 1e6,
+                        (double) sequentialNanos / nanos, 100.0 * agreement(sequential, tree, training));
+            }
+        }
+
+        System.out.println();
+        System.out.println("--- Prediction: " + PARALLEL_ROWS + " continuous rows, best of " + PREDICTION_REPEATS + " ---");
+        System.out.printf("%8s %10s %-12s %16s %18s %16s%n", "depth", "nodes", "code", "predict(row)",
+                "predict(double[])", "predictBatch");
+        double[][] vectors = new double[training.size()][training.getFeatureCount()];
+        for (int row = 0; row < training.size(); row++) {
+            training.copyRow(row, vectors[row]);
+        }
+        for (int depth : PREDICTION_DEPTHS) {
+            DecisionTree tree = newTree(depth, minSamplesSplit, DecisionTree.SplitSearch.HISTOGRAM);
+            tree.train(training);
+            for (boolean generate : new boolean[] {false, true}) {
+                tree.setGenerateCode(generate);
+                double[] latency = predictionLatency(tree, training, vectors);
+                System.out.printf("%8d %,10d %-12s %13.1f ns %15.1f ns %13.1f ns%n", depth, tree.getNodeCount(),
+                        tree.isCodeGenerated() ? "generated" : "interpreted", latency[0], latency[1], latency[2]);
+            }
+        }
+
+        Split split = Preprocessor.trainTestSplit(source, 0.8, true, SEED);
+        Dataset pruningTraining = split.trainView(source);
+        Dataset pruningTest = split.testView(source);
+        System.out.println();
+        System.out.println("--- Pruning: " + sourcePath + ", " + pruningTraining.size() + " training and "
+                + pruningTest.size() + " test rows ---");
+        System.out.printf("%-28s %8s %8s %12s %10s%n", "setting", "grown", "nodes", "time", "test acc");
+        printPruning("none", newTree(maxDepth, minSamplesSplit, DecisionTree.SplitSearch.EXACT),
+                pruningTraining, pruningTest);
+        for (int minSamplesLeaf : MIN_SAMPLES_LEAF) {
+            DecisionTree tree = newTree(maxDepth, minSamplesSplit, DecisionTree.SplitSearch.EXACT);
+            tree.setMinSamplesLeaf(minSamplesLeaf);
+            printPruning("minSamplesLeaf=" + minSamplesLeaf, tree, pruningTraining, pruningTest);
+        }
+        for (double minImpurityDecrease : MIN_IMPURITY_DECREASE) {
+            DecisionTree tree = newTree(maxDepth, minSamplesSplit, DecisionTree.SplitSearch.EXACT);
+            tree.setMinImpurityDecrease(minImpurityDecrease);
+            printPruning("minImpurityDecrease=" + minImpurityDecrease, tree, pruningTraining, pruningTest);
+        }
+        for (double ccpAlpha : CCP_ALPHAS) {
+            DecisionTree tree = newTree(maxDepth, minSamplesSplit, DecisionTree.SplitSearch.EXACT);
+            tree.setCcpAlpha(ccpAlpha);
+            printPruning("ccpAlpha=" + ccpAlpha, tree, pruningTraining, pruningTest);
+        }
+    }
+
+    private static void printPruning(String setting, DecisionTree tree, Dataset training, Dataset test) {
+        long nanos = train(tree, training)[0];
+        System.out.printf("%-28s %8d %8d %9.1f ms %9.1f%%%n", setting, tree.getGrownNodeCount(), tree.getNodeCount(),
+                nanos / 1e6, 100.0 * accuracy(tree, test));
+    }
+
+    // Returns the best time per row of predict(row), predict(double[]) and predictBatch(), in nanoseconds.
+    private static double[] predictionLatency(DecisionTree tree, Dataset data, double[][] vectors) {
+        long rowNanos = Long.MAX_VALUE;
+        long vectorNanos = Long.MAX_VALUE;
+        long batchNanos = Long.MAX_VALUE;
+        long checksum = 0;
+        for (int repeat = 0; repeat < PREDICTION_REPEATS; repeat++) {
+            long start = System.nanoTime();
+            for (int row = 0; row < data.size(); row++) {
+                checksum += tree.predict(data, row);
+            }
+            rowNanos = Math.min(rowNanos, System.nanoTime() - start);
+            start = System.nanoTime();
+            for (double[] vector : vectors) {
+                checksum -= tree.predict(vector);
+            }
+            vectorNanos = Math.min(vectorNanos, System.nanoTime() - start);
+            start = System.nanoTime();
+            int[] predictions = tree.predictBatch(data);
+            batchNanos = Math.min(batchNanos, System.nanoTime() - start);
+            checksum += predictions[repeat];
+        }
+        sink += checksum;
+        double rows = data.size();
+        return new double[] {rowNanos / rows, vectorNanos / rows, batchNanos / rows};
+    }
+
+    // Returns the training time in nanoseconds and the bytes allocated by the training thread.
+    private static long[] train(DecisionTree tree, Dataset training) {
+        return AllocationMeter.measure(() -> {
+            tree.train(training);
+            return tree.getNodeCount();
+        });
+    }
+
+    private static DecisionTree newTree(int maxDepth, int minSamplesSplit, DecisionTree.SplitSearch search) {
+        DecisionTree tree = new DecisionTree(maxDepth, minSamplesSplit);
+        tree.setSplitSearch(search);
+        return tree;
+    }
+
+    private static double agreement(DecisionTree a, DecisionTree b, Dataset data) {
+        int same = 0;
+        for (int row = 0; row < data.size(); row++) {
+            if (a.predict(data, row) == b.predict(data, row)) {
+                same++;
+            }
+        }
+        return (double) same / data.size();
+    }
+
+    private static double accuracy(DecisionTree tree, Dataset data) {
+        int correct = 0;
+        for (int row = 0; row < data.size(); row++) {
+            if (tree.predict(data, row) == data.getLabel(row)) {
+                correct++;
+            }
+        }
+        return (double) correct / data.size();
+    }
+
+    // Draws 'rows' real students (features and label together) at random, adding Gaussian noise of the given
+    // standard deviation to every feature value.
+    static Dataset resample(Dataset source, int rows, double noise, Random random) {
+        int numFeatures = source.getFeatureCount();
+        double[][] columns = new double[numFeatures][rows];
+        int[] labels = new int[rows];
+        for (int r = 0; r < rows; r++) {
+            int pick = random.nextInt(source.size());
+            for (int f = 0; f < numFeatures; f++) {
+                columns[f][r] = source.getFeature(pick, f) + (noise == 0 ? 0 : noise * random.nextGaussian());
+            }
+            labels[r] = source.getLabel(pick);
+        }
+        return new Dataset(columns, labels);
+    }
+}
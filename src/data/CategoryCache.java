@@ -0,0 +1,88 @@
+package data;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Remembers the encoded value of each distinct text seen in one categorical column (e.g. "18-22" -> 20.0).
+ *
+ * The columns we load only have a handful of distinct values, so after the first few rows every lookup is
+ * answered by comparing the raw bytes in the tokenizer's buffer, without creating a String or re-running
+ * the encoder. Each loader run uses its own caches, so this class does not need to be thread-safe.
+ */
+class CategoryCache {
+
+    /**
+     * The text-to-number rule for a column, e.g. DataLoader::encodeAge.
+     */
+    interface Encoder {
+        double encode(String value);
+    }
+
+    // If a column turns out to have many distinct values, stop caching and just encode every time.
+    private static final int MAX_ENTRIES = 1024;
+
+    private final Encoder encoder;
+
+    // An open-addressing hash table. keys[i] == null marks an empty slot.
+    private byte[][] keys = new byte[16][];
+    private int[] hashes = new int[16];
+    private double[] values = new double[16];
+    private int size;
+
+    CategoryCache(Encoder encoder) {
+        this.encoder = encoder;
+    }
+
+    /**
+     * Encodes one field of the tokenizer's current row.
+     * @param tokenizer The tokenizer positioned on the row.
+     * @param column The column to encode.
+     * @return The same value that encoder.encode(tokenizer.getField(column)) would give.
+     */
+    double encode(CsvTokenizer tokenizer, int column) {
+        int hash = tokenizer.fieldHash(column);
+        int mask = keys.length - 1;
+        int slot = hash & mask;
+        while (keys[slot] != null) {
+            if (hashes[slot] == hash && tokenizer.fieldEquals(column, keys[slot])) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        // First time we see this text: run the real encoder and remember the answer.
+        byte[] key = tokenizer.unquotedBytes(column);
+        double value = encoder.encode(new String(key, StandardCharsets.UTF_8));
+        if (size < MAX_ENTRIES) {
+            keys[slot] = key;
+            hashes[slot] = hash;
+            values[slot] = value;
+            size++;
+            if (size * 2 > keys.length) {
+                grow();
+            }
+        }
+        return value;
+    }
+
+    private void grow() {
+        byte[][] oldKeys = keys;
+        int[] oldHashes = hashes;
+        double[] oldValues = values;
+        keys = new byte[oldKeys.length * 2][];
+        hashes = new int[keys.length];
+        values = new double[keys.length];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = oldHashes[i] & mask;
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                hashes[slot] = oldHashes[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
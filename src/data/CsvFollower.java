@@ -0,0 +1,91 @@
+package data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Follows a CSV file that keeps growing (new survey responses appended at the end) and hands out only the rows
+ * that were added since the last call, so a model can learn from them with partialFit() instead of being
+ * retrained over the whole history. Create one with DataLoader.follow().
+ *
+ * Only complete rows are read: a row counts as complete once its line break (outside quotes) has been written.
+ * A half-written last row is left for the next call. The file is opened for each call, so it may be appended
+ * to by another process in between.
+ */
+public class CsvFollower {
+
+    private static final int SCAN_BUFFER_BYTES = 64 * 1024;
+
+    private final DataLoader loader;
+    private final Path file;
+    // Where the next unread row starts. 0 means the header has not been read yet.
+    private long offset;
+    private long rowsRead;
+
+    CsvFollower(DataLoader loader, String filePath) {
+        this.loader = loader;
+        this.file = Path.of(filePath);
+    }
+
+    /**
+     * Reads the complete rows appended since the last call (on the first call: every row of the file).
+     * @return The new rows in file order; empty if nothing new was written.
+     * @throws IOException If the file can not be read, or got shorter than what was already read
+     *                     (it was replaced instead of appended to).
+     */
+    public Dataset readNewRows() throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < offset) {
+                throw new IOException(file + " is shorter than the " + offset + " bytes already read; it was not appended to.");
+            }
+            long end = endOfLastCompleteRow(channel, offset, size);
+            List<DataPoint> rows = loader.parseChunk(channel, offset, end, offset == 0, null);
+            offset = end;
+            rowsRead += rows.size();
+            return Dataset.fromDataPoints(rows);
+        }
+    }
+
+    /**
+     * @return The number of rows handed out so far.
+     */
+    public long getRowsRead() {
+        return rowsRead;
+    }
+
+    /**
+     * @return The file offset up to which the file has been read.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    // Returns the offset just after the last '\n' in [start, size) that is outside quotes, or 'start' if there is
+    // none. 'start' is always a row boundary, so the quote count starts out even.
+    private static long endOfLastCompleteRow(FileChannel channel, long start, long size) throws IOException {
+        long end = start;
+        long position = start;
+        boolean inQuotes = false;
+        byte[] buffer = new byte[SCAN_BUFFER_BYTES];
+        try (InputStream in = new MappedRangeInputStream(channel, start, size)) {
+            int n;
+            while ((n = in.read(buffer, 0, buffer.length)) > 0) {
+                for (int i = 0; i < n; i++) {
+                    byte b = buffer[i];
+                    if (b == '"') {
+                        inQuotes = !inQuotes;
+                    } else if (b == '\n' && !inQuotes) {
+                        end = position + i + 1;
+                    }
+                }
+                position += n;
+            }
+        }
+        return end;
+    }
+}
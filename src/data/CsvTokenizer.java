@@ -0,0 +1,378 @@
+package data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A single-pass, quote-aware CSV tokenizer that works directly on a byte buffer.
+ *
+ * It is a small state machine: every '"' toggles the "inside quotes" state, a ',' outside quotes ends a field,
+ * and a line break outside quotes ends a row. This gives the same fields as the old regex split
+ * (",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)") but looks at every byte exactly once instead of rescanning the rest
+ * of the line at every comma.
+ *
+ * No String is created while scanning. A row is only remembered as (start, end) offsets into the buffer,
+ * and a field is turned into a String when somebody asks for it with getField().
+ */
+public class CsvTokenizer {
+
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+    private static final int INITIAL_FIELD_CAPACITY = 64;
+
+    // Largest power of ten that is exactly representable as a double, and the largest mantissa with that property.
+    private static final int MAX_EXACT_POWER_OF_TEN = 22;
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final double[] POWERS_OF_TEN = new double[MAX_EXACT_POWER_OF_TEN + 1];
+    static {
+        POWERS_OF_TEN[0] = 1.0;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10.0;
+        }
+    }
+
+    private final InputStream in;
+
+    // The read window. Bytes between 'pos' and 'limit' have been read but not consumed yet.
+    private byte[] buf;
+    private int pos;
+    private int limit;
+    private boolean endOfInput;
+
+    // Set when the last row ended with '\r', so a directly following '\n' belongs to the same line break.
+    private boolean skipLineFeed;
+
+    // Which columns to keep, indexed by column. null means every column is kept.
+    private boolean[] projection;
+
+    // Offsets of the fields of the current row. A field i covers buf[fieldStart[i] .. fieldEnd[i]).
+    // With a projection, only the slots of the projected columns are filled in.
+    private int[] fieldStart = new int[INITIAL_FIELD_CAPACITY];
+    private int[] fieldEnd = new int[INITIAL_FIELD_CAPACITY];
+    // Whether a field contains at least one quote character that has to be stripped.
+    private boolean[] fieldQuoted = new boolean[INITIAL_FIELD_CAPACITY];
+    private int fieldCount;
+
+    // The bytes of the whole current row (without the line break), used for error messages.
+    private int rowStart;
+    private int rowEnd;
+
+    /**
+     * Creates a tokenizer that streams rows from the given input.
+     * @param in The raw CSV bytes (UTF-8). The caller is responsible for closing it.
+     */
+    public CsvTokenizer(InputStream in) {
+        this(in, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a tokenizer with a custom initial buffer size. The buffer grows if a single row is larger.
+     */
+    public CsvTokenizer(InputStream in, int bufferSize) {
+        this.in = in;
+        this.buf = new byte[Math.max(bufferSize, 16)];
+    }
+
+    /**
+     * Restricts the tokenizer to a set of columns. Other columns are still scanned (to find where the row ends),
+     * but their offsets are not recorded and they can not be read.
+     * @param columns The zero-based indices of the columns that will be read.
+     */
+    public void setProjection(int... columns) {
+        int maxColumn = -1;
+        for (int column : columns) {
+            if (column < 0) {
+                throw new IllegalArgumentException("Column index can not be negative: " + column);
+            }
+            maxColumn = Math.max(maxColumn, column);
+        }
+        boolean[] mask = new boolean[maxColumn + 1];
+        for (int column : columns) {
+            mask[column] = true;
+        }
+        this.projection = mask;
+        int capacity = Math.max(mask.length, 1);
+        this.fieldStart = new int[capacity];
+        this.fieldEnd = new int[capacity];
+        this.fieldQuoted = new boolean[capacity];
+    }
+
+    /**
+     * Moves to the next row of the input.
+     * @return true if a row was read, false when the input is exhausted.
+     * @throws IOException if reading from the underlying stream fails.
+     */
+    public boolean nextRow() throws IOException {
+        fieldCount = 0;
+
+        // Make sure there is at least one byte to look at, otherwise we are done.
+        if (pos >= limit && !fill(limit)) {
+            return false;
+        }
+        if (skipLineFeed) {
+            skipLineFeed = false;
+            if (buf[pos] == '\n') {
+                pos++;
+                if (pos >= limit && !fill(limit)) {
+                    return false;
+                }
+            }
+        }
+
+        rowStart = pos;
+        int start = pos;
+        boolean inQuotes = false;
+        boolean quoted = false;
+        int i = pos;
+
+        while (true) {
+            if (i >= limit) {
+                // The row continues past the end of the window: slide it to the front and read more.
+                int shift = rowStart;
+                if (!fill(rowStart)) {
+                    // End of input without a trailing line break: the last field ends here.
+                    addField(start - shift, i - shift, quoted);
+                    rowStart = 0;
+                    rowEnd = i - shift;
+                    pos = limit;
+                    return true;
+                }
+                i -= shift;
+                start -= shift;
+            }
+
+            byte b = buf[i];
+            if (b == '"') {
+                inQuotes = !inQuotes;
+                quoted = true;
+            } else if (!inQuotes) {
+                if (b == ',') {
+                    addField(start, i, quoted);
+                    start = i + 1;
+                    quoted = false;
+                } else if (b == '\n' || b == '\r') {
+                    addField(start, i, quoted);
+                    rowEnd = i;
+                    pos = i + 1;
+                    skipLineFeed = (b == '\r');
+                    return true;
+                }
+            }
+            i++;
+        }
+    }
+
+    /**
+     * @return The number of fields in the current row.
+     */
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * Returns one field of the current row as a String, with all quote characters removed.
+     * This matches what the old loader got from {@code value.replace("\"", "")}; trimming is left to the caller.
+     * @param index The zero-based column index.
+     * @return The field text.
+     */
+    public String getField(int index) {
+        checkField(index);
+        int from = fieldStart[index];
+        int to = fieldEnd[index];
+        if (!fieldQuoted[index]) {
+            return new String(buf, from, to - from, StandardCharsets.UTF_8);
+        }
+        return new String(unquotedBytes(index), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parses a numeric field straight from the bytes, without creating a String.
+     * The result is exactly what {@code Double.parseDouble(getField(index).trim())} would return.
+     * Plain decimals such as "15" or "2.745" take a fast path; anything else (exponents, very long numbers,
+     * "NaN", ...) falls back to Double.parseDouble.
+     * @param index The zero-based column index.
+     * @return The parsed value.
+     * @throws NumberFormatException if the field is not a number.
+     */
+    public double getDouble(int index) {
+        checkField(index);
+        int from = fieldStart[index];
+        int to = fieldEnd[index];
+
+        // Trim the same characters as String.trim(), ignoring any quotes. Bytes are signed, so compare them
+        // unsigned: the bytes of a non-ASCII character (0x80 and up) are not whitespace.
+        while (from < to && ((buf[from] & 0xFF) <= ' ' || buf[from] == '"')) {
+            from++;
+        }
+        while (to > from && ((buf[to - 1] & 0xFF) <= ' ' || buf[to - 1] == '"')) {
+            to--;
+        }
+
+        boolean negative = false;
+        if (from < to && (buf[from] == '-' || buf[from] == '+')) {
+            negative = buf[from] == '-';
+            from++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean seenDot = false;
+        for (int i = from; i < to; i++) {
+            byte b = buf[i];
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (seenDot) {
+                    fractionDigits++;
+                }
+                if (mantissa >= MAX_EXACT_MANTISSA) {
+                    return parseDoubleSlow(index);
+                }
+            } else if (b == '.' && !seenDot) {
+                seenDot = true;
+            } else if (b != '"') {
+                return parseDoubleSlow(index);
+            }
+        }
+        if (digits == 0 || fractionDigits > MAX_EXACT_POWER_OF_TEN) {
+            return parseDoubleSlow(index);
+        }
+
+        // Both numbers are exact doubles, so a single division is correctly rounded, just like parseDouble.
+        double value = (double) mantissa / POWERS_OF_TEN[fractionDigits];
+        return negative ? -value : value;
+    }
+
+    private double parseDoubleSlow(int index) {
+        return Double.parseDouble(getField(index).trim());
+    }
+
+    /**
+     * @return A hash of the field bytes with quotes removed. Equal field texts give equal hashes.
+     */
+    int fieldHash(int index) {
+        checkField(index);
+        int hash = 1;
+        for (int i = fieldStart[index]; i < fieldEnd[index]; i++) {
+            if (buf[i] != '"') {
+                hash = 31 * hash + buf[i];
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @return true if the field, with quotes removed, consists of exactly the given bytes.
+     */
+    boolean fieldEquals(int index, byte[] bytes) {
+        checkField(index);
+        int k = 0;
+        for (int i = fieldStart[index]; i < fieldEnd[index]; i++) {
+            byte b = buf[i];
+            if (b == '"') {
+                continue;
+            }
+            if (k == bytes.length || bytes[k] != b) {
+                return false;
+            }
+            k++;
+        }
+        return k == bytes.length;
+    }
+
+    /**
+     * @return A copy of the field bytes with all quote characters removed.
+     */
+    byte[] unquotedBytes(int index) {
+        checkField(index);
+        int from = fieldStart[index];
+        int to = fieldEnd[index];
+        // The quote byte never appears inside a multi-byte UTF-8 sequence, so it is safe to drop it byte-wise.
+        byte[] unquoted = new byte[to - from];
+        int length = 0;
+        for (int i = from; i < to; i++) {
+            if (buf[i] != '"') {
+                unquoted[length++] = buf[i];
+            }
+        }
+        return length == unquoted.length ? unquoted : Arrays.copyOf(unquoted, length);
+    }
+
+    /**
+     * @return The raw text of the current row, for error messages.
+     */
+    public String getRowText() {
+        return new String(buf, rowStart, rowEnd - rowStart, StandardCharsets.UTF_8);
+    }
+
+    private void checkField(int index) {
+        if (index < 0 || index >= fieldCount) {
+            throw new IndexOutOfBoundsException("Field index " + index + " is out of bounds for a row with "
+                    + fieldCount + " fields.");
+        }
+        if (projection != null && (index >= projection.length || !projection[index])) {
+            throw new IllegalStateException("Column " + index + " is not part of the projection.");
+        }
+    }
+
+    private void addField(int start, int end, boolean quoted) {
+        if (projection != null) {
+            // Unused columns are only counted, nothing is recorded for them.
+            if (fieldCount < projection.length && projection[fieldCount]) {
+                fieldStart[fieldCount] = start;
+                fieldEnd[fieldCount] = end;
+                fieldQuoted[fieldCount] = quoted;
+            }
+            fieldCount++;
+            return;
+        }
+        if (fieldCount == fieldStart.length) {
+            int newCapacity = fieldStart.length * 2;
+            fieldStart = Arrays.copyOf(fieldStart, newCapacity);
+            fieldEnd = Arrays.copyOf(fieldEnd, newCapacity);
+            fieldQuoted = Arrays.copyOf(fieldQuoted, newCapacity);
+        }
+        fieldStart[fieldCount] = start;
+        fieldEnd[fieldCount] = end;
+        fieldQuoted[fieldCount] = quoted;
+        fieldCount++;
+    }
+
+    /**
+     * Slides the bytes from 'keepFrom' onwards to the front of the buffer (growing it if they fill it completely)
+     * and reads more input behind them. Offsets of the fields recorded so far are shifted along.
+     * @param keepFrom The first buffer offset that is still needed.
+     * @return false if no more bytes could be read.
+     */
+    private boolean fill(int keepFrom) throws IOException {
+        int kept = limit - keepFrom;
+        if (keepFrom > 0) {
+            System.arraycopy(buf, keepFrom, buf, 0, kept);
+            for (int f = 0; f < Math.min(fieldCount, fieldStart.length); f++) {
+                fieldStart[f] -= keepFrom;
+                fieldEnd[f] -= keepFrom;
+            }
+            rowStart -= keepFrom;
+            pos -= keepFrom;
+            limit = kept;
+        }
+        if (endOfInput) {
+            return false;
+        }
+        if (limit == buf.length) {
+            buf = Arrays.copyOf(buf, buf.length * 2);
+        }
+        int read;
+        do {
+            read = in.read(buf, limit, buf.length - limit);
+        } while (read == 0);
+        if (read < 0) {
+            endOfInput = true;
+            return false;
+        }
+        limit += read;
+        return true;
+    }
+}
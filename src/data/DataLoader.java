@@ -1,13 +1,56 @@
 package data;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class DataLoader {
+
+    // Positions of the columns we actually use in the survey CSV (39 columns in total).
+    private static final int AGE_COLUMN = 0;
+    private static final int GENDER_COLUMN = 1;
+    private static final int ACADEMIC_YEAR_COLUMN = 4;
+    private static final int CGPA_COLUMN = 5;
+    private static final int SCHOLARSHIP_COLUMN = 6;
+    private static final int STRESS_LABEL_COLUMN = 18;
+    private static final int ANXIETY_VALUE_COLUMN = 26;
+    private static final int DEPRESSION_VALUE_COLUMN = 37;
+
+    // Bounds for the size of one piece of the file in the parallel loader.
+    private static final long MIN_CHUNK_BYTES = 1L << 20;
+    private static final long MAX_CHUNK_BYTES = 1L << 28;
+
+    // age, gender, academicYear, cgpa, scholarship, anxietyValue, depressionValue
+    private static final int NUM_FEATURES = 7;
+
+    // The tokenizer only records these columns; everything else (University, Department, ...) is skipped.
+    private static final int[] REQUIRED_COLUMNS = {
+            AGE_COLUMN, GENDER_COLUMN, ACADEMIC_YEAR_COLUMN, CGPA_COLUMN, SCHOLARSHIP_COLUMN,
+            STRESS_LABEL_COLUMN, ANXIETY_VALUE_COLUMN, DEPRESSION_VALUE_COLUMN
+    };
+
+    // Describes how the features are produced. Change ENCODING_VERSION whenever an encode* method changes,
+    // so feature caches written by the old rules are not used any more.
+    private static final int ENCODING_VERSION = 1;
+    private static final String SCHEMA = "encoding=" + ENCODING_VERSION
+            + ";columns=" + Arrays.toString(REQUIRED_COLUMNS)
+            + ";features=age,gender,academicYear,cgpa,scholarship,anxietyValue,depressionValue;label=stressLabel";
+    private static final long SCHEMA_HASH = FeatureCache.schemaHash(SCHEMA);
+
+    // The feature cache lives next to the CSV it was made from.
+    private static final String CACHE_SUFFIX = ".features";
+
     /**
      * Converts the age string from the CSV into a single numerical value.
      * e.g., "18-22" -> 20.0
@@ -162,47 +205,386 @@ public class DataLoader {
     }
 
     public List<DataPoint> loadData(String filePath) {
+        return loadData(filePath, null);
+    }
+
+    /**
+     * Loads the CSV and, in the same pass, feeds every row into a FeatureScaler.
+     * @param filePath The path to the CSV file.
+     * @param scaler Receives the statistics of every loaded row (may be null).
+     * @return The list of DataPoints (unscaled).
+     * @throws UncheckedIOException If the file can not be read.
+     */
+    public List<DataPoint> loadData(String filePath, FeatureScaler scaler) {
         List<DataPoint> dataPoints = new ArrayList<>();
-        String line = "";
 
-        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
-            br.readLine(); // Skip header
+        try (InputStream in = new FileInputStream(filePath)) {
+            CsvTokenizer tokenizer = new CsvTokenizer(in);
+            tokenizer.nextRow(); // Skip header
+            parseRows(tokenizer, withScaler((features, label) -> dataPoints.add(new DataPoint(features, label)), scaler));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + filePath, e);
+        }
+
+        return dataPoints;
+    }
+
+    /**
+     * Loads the CSV straight into off-heap feature storage at FLOAT64, so the values are exactly those loadData
+     * returns.
+     * @param filePath The path to the CSV file.
+     * @return The dataset, with the rows in file order.
+     * @throws UncheckedIOException If the file can not be read.
+     */
+    public Dataset loadDatasetOffHeap(String filePath) {
+        return loadDatasetOffHeap(filePath, OffHeapFeatureStorage.Precision.FLOAT64);
+    }
 
-            while ((line = br.readLine()) != null) {
-                try {
-                    //USING THE SMARTER SPLIT
-                    String[] values = line.split(",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)", -1);
+    /**
+     * Loads the CSV straight into off-heap feature storage, without creating a DataPoint per row.
+     * Only the labels (4 bytes per row) stay on the Java heap, so very large files can be held with a small
+     * heap (remember to allow enough direct memory with -XX:MaxDirectMemorySize).
+     * @param filePath The path to the CSV file.
+     * @param precision FLOAT64 keeps the values bit-exact. FLOAT32 halves the memory but is lossy: values are
+     *                  rounded to the nearest float (2.745 becomes 2.7450001), which can move a split threshold
+     *                  or break a distance tie.
+     * @return The dataset, with the rows in file order.
+     * @throws UncheckedIOException If the file can not be read.
+     */
+    public Dataset loadDatasetOffHeap(String filePath, OffHeapFeatureStorage.Precision precision) {
+        OffHeapSink sink = new OffHeapSink(new OffHeapFeatureStorage(NUM_FEATURES, precision));
 
-                    // all the features in order
-                    double age = encodeAge(values[0]);
-                    double gender = encodeGender(values[1]);
-                    double academicYear = encodeAcademicYear(values[4]);
-                    double cgpa = encodeCgpa(values[5]);
-                    double scholarship = encodeScholarship(values[6]);
-                    double anxietyValue = Double.parseDouble(values[26].replace("\"", "").trim());
-                    double depressionValue = Double.parseDouble(values[37].replace("\"", "").trim());
+        try (InputStream in = new FileInputStream(filePath)) {
+            CsvTokenizer tokenizer = new CsvTokenizer(in);
+            tokenizer.nextRow(); // Skip header
+            parseRows(tokenizer, sink);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + filePath, e);
+        }
 
-                    double[] features = new double[] {
-                            age, gender, academicYear, cgpa, scholarship, anxietyValue, depressionValue
-                    };
+        return sink.toDataset();
+    }
 
-                    int stressLabel = encodeStressLabel(values[18]);
+    /**
+     * Loads the CSV using every core. The file is memory-mapped, cut into chunks that start exactly at a row
+     * boundary, and the chunks are parsed in parallel on the common ForkJoin pool.
+     * The result is identical to loadData(filePath), in the same row order.
+     * @param filePath The path to the CSV file.
+     * @return The list of DataPoints, in file order.
+     */
+    public List<DataPoint> loadDataParallel(String filePath) {
+        return loadDataParallel(filePath, null);
+    }
 
-                    dataPoints.add(new DataPoint(features, stressLabel));
+    /**
+     * Parallel version of loadData(filePath, scaler). Every chunk collects its own statistics and they are
+     * merged into 'scaler' at the end.
+     * @param filePath The path to the CSV file.
+     * @param scaler Receives the statistics of every loaded row (may be null).
+     * @return The list of DataPoints (unscaled), in file order.
+     * @throws UncheckedIOException If the file can not be read.
+     */
+    public List<DataPoint> loadDataParallel(String filePath, FeatureScaler scaler) {
+        try (FileChannel channel = FileChannel.open(Path.of(filePath), StandardOpenOption.READ)) {
+            long[] boundaries = findRowAlignedChunks(channel);
+
+            // Parse every chunk on the ForkJoin pool. Only the first chunk contains the header.
+            List<ForkJoinTask<List<DataPoint>>> tasks = new ArrayList<>();
+            List<FeatureScaler> chunkScalers = new ArrayList<>();
+            for (int i = 0; i + 1 < boundaries.length; i++) {
+                long start = boundaries[i];
+                long end = boundaries[i + 1];
+                boolean hasHeader = (i == 0);
+                FeatureScaler chunkScaler = (scaler == null) ? null : scaler.emptyCopy();
+                chunkScalers.add(chunkScaler);
+                tasks.add(ForkJoinTask.adapt(() -> parseChunk(channel, start, end, hasHeader, chunkScaler)));
+            }
+            ForkJoinTask.invokeAll(tasks);
+            if (scaler != null) {
+                for (FeatureScaler chunkScaler : chunkScalers) {
+                    scaler.merge(chunkScaler);
+                }
+            }
+
+            // Merge the chunk results back together in their original order.
+            int total = 0;
+            for (ForkJoinTask<List<DataPoint>> task : tasks) {
+                total += task.join().size();
+            }
+            List<DataPoint> dataPoints = new ArrayList<>(total);
+            for (ForkJoinTask<List<DataPoint>> task : tasks) {
+                dataPoints.addAll(task.join());
+            }
+            return dataPoints;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + filePath, e);
+        }
+    }
+
+    /**
+     * Converts a CSV into a RowFile for out-of-core training, streaming: every row is written as soon as it is
+     * parsed, so the heap use does not depend on the size of the CSV.
+     * @param filePath The path to the CSV file.
+     * @param rowFilePath Where to write the row file.
+     * @param scaler Receives the statistics of every row (may be null).
+     * @return The number of rows written.
+     * @throws IOException If the CSV can not be read or the row file can not be written.
+     */
+    public long writeRowFile(String filePath, String rowFilePath, FeatureScaler scaler) throws IOException {
+        try (InputStream in = new FileInputStream(filePath);
+             RowFile.Writer writer = new RowFile.Writer(Path.of(rowFilePath), NUM_FEATURES)) {
+            CsvTokenizer tokenizer = new CsvTokenizer(in);
+            tokenizer.nextRow(); // Skip header
+            parseRows(tokenizer, withScaler(writer::addRow, scaler));
+            return writer.getRowCount();
+        }
+    }
+
+    /**
+     * Follows a CSV that keeps growing: every readNewRows() call on the result returns only the rows appended
+     * since the previous call, ready for LogisticRegression.partialFit().
+     * @param filePath The path to the CSV file (with a header row).
+     * @return A follower positioned at the start of the file.
+     */
+    public CsvFollower follow(String filePath) {
+        return new CsvFollower(this, filePath);
+    }
+
+    /**
+     * Loads the data through a binary feature cache stored next to the CSV (filePath + ".features").
+     * If the cache is newer than the CSV and was written by the same encoding rules, it is memory-mapped and
+     * used directly. Otherwise the CSV is parsed as usual and, if it held any rows, a fresh cache is written for
+     * the next run.
+     * @param filePath The path to the CSV file.
+     * @return The list of DataPoints, identical to loadData(filePath).
+     */
+    public List<DataPoint> loadDataCached(String filePath) {
+        return loadDatasetCached(filePath).toDataPoints();
+    }
+
+    /**
+     * Same as loadDataCached, but returns the columns as a Dataset. When the cache is used, no per-row
+     * objects are created at all.
+     * @param filePath The path to the CSV file.
+     * @return The dataset, with the rows in file order.
+     */
+    public Dataset loadDatasetCached(String filePath) {
+        return loadDatasetCached(filePath, null);
+    }
+
+    /**
+     * Same as loadDatasetCached(filePath), and also feeds every row into a FeatureScaler: during parsing when
+     * the CSV is read, or in one pass over the columns when the cache is used.
+     * @param filePath The path to the CSV file.
+     * @param scaler Receives the statistics of every loaded row (may be null).
+     * @return The dataset (unscaled), with the rows in file order.
+     */
+    public Dataset loadDatasetCached(String filePath, FeatureScaler scaler) {
+        Path csvFile = Path.of(filePath);
+        Path cacheFile = Path.of(filePath + CACHE_SUFFIX);
 
-                } catch (Exception e) {
-                    System.err.println("Skipping malformed line: " + line + " | Error: " + e.getMessage());
-                    // It's helpful to also print which part failed
-                    e.printStackTrace();
+        try {
+            if (Files.exists(cacheFile)
+                    && Files.getLastModifiedTime(cacheFile).compareTo(Files.getLastModifiedTime(csvFile)) > 0) {
+                Dataset cached = FeatureCache.read(cacheFile, SCHEMA_HASH);
+                if (cached != null) {
+                    if (scaler != null) {
+                        scaler.fit(cached);
+                    }
+                    return cached;
                 }
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            // A broken cache is not fatal, we simply fall back to the CSV.
+            System.err.println("Could not read feature cache " + cacheFile + ": " + e.getMessage());
+        }
+
+        Dataset dataset = Dataset.fromDataPoints(loadDataParallel(filePath, scaler));
+        // An empty result (no parseable rows) is not cached, so a fixed parser gets to read the CSV again.
+        if (!dataset.isEmpty()) {
+            try {
+                FeatureCache.write(cacheFile, dataset, SCHEMA_HASH);
+            } catch (IOException e) {
+                System.err.println("Could not write feature cache " + cacheFile + ": " + e.getMessage());
+            }
+        }
+        return dataset;
+    }
+
+    /**
+     * Receives every successfully encoded row from parseRows.
+     */
+    private interface RowSink {
+        void accept(double[] features, int label);
+    }
+
+    /**
+     * @return A sink that first adds the row to the scaler's statistics and then passes it on.
+     */
+    private static RowSink withScaler(RowSink sink, FeatureScaler scaler) {
+        if (scaler == null) {
+            return sink;
+        }
+        return (features, label) -> {
+            scaler.accept(features);
+            sink.accept(features, label);
+        };
+    }
+
+    /**
+     * Collects rows into off-heap storage, with the labels in a growing int[].
+     */
+    private static class OffHeapSink implements RowSink {
+        private final OffHeapFeatureStorage storage;
+        private int[] labels = new int[1024];
+        private int count;
+
+        OffHeapSink(OffHeapFeatureStorage storage) {
+            this.storage = storage;
+        }
+
+        @Override
+        public void accept(double[] features, int label) {
+            storage.addRow(features);
+            if (count == labels.length) {
+                labels = Arrays.copyOf(labels, labels.length * 2);
+            }
+            labels[count++] = label;
         }
 
+        Dataset toDataset() {
+            return new Dataset(storage, Arrays.copyOf(labels, count));
+        }
+    }
+
+    /**
+     * Reads the data rows from the tokenizer's current position to the end and hands them to the sink.
+     * Malformed rows are reported and skipped.
+     */
+    private void parseRows(CsvTokenizer tokenizer, RowSink sink) throws IOException {
+        tokenizer.setProjection(REQUIRED_COLUMNS);
+
+        // One cache per categorical column, so each distinct text is only encoded once.
+        CategoryCache ageCodes = new CategoryCache(this::encodeAge);
+        CategoryCache genderCodes = new CategoryCache(this::encodeGender);
+        CategoryCache academicYearCodes = new CategoryCache(this::encodeAcademicYear);
+        CategoryCache cgpaCodes = new CategoryCache(this::encodeCgpa);
+        CategoryCache scholarshipCodes = new CategoryCache(this::encodeScholarship);
+        CategoryCache stressLabelCodes = new CategoryCache(this::encodeStressLabel);
+
+        while (tokenizer.nextRow()) {
+            try {
+                // all the features in order
+                double age = ageCodes.encode(tokenizer, AGE_COLUMN);
+                double gender = genderCodes.encode(tokenizer, GENDER_COLUMN);
+                double academicYear = academicYearCodes.encode(tokenizer, ACADEMIC_YEAR_COLUMN);
+                double cgpa = cgpaCodes.encode(tokenizer, CGPA_COLUMN);
+                double scholarship = scholarshipCodes.encode(tokenizer, SCHOLARSHIP_COLUMN);
+                double anxietyValue = tokenizer.getDouble(ANXIETY_VALUE_COLUMN);
+                double depressionValue = tokenizer.getDouble(DEPRESSION_VALUE_COLUMN);
+
+                double[] features = new double[] {
+                        age, gender, academicYear, cgpa, scholarship, anxietyValue, depressionValue
+                };
+
+                int stressLabel = (int) stressLabelCodes.encode(tokenizer, STRESS_LABEL_COLUMN);
+
+                sink.accept(features, stressLabel);
+
+            } catch (Exception e) {
+                System.err.println("Skipping malformed line: " + tokenizer.getRowText() + " | Error: " + e.getMessage());
+                // It's helpful to also print which part failed
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Parses the rows in [start, end) of the file; 'start' must be a row boundary. Also used by CsvFollower.
+    List<DataPoint> parseChunk(FileChannel channel, long start, long end, boolean hasHeader,
+                                       FeatureScaler scaler) throws IOException {
+        List<DataPoint> dataPoints = new ArrayList<>();
+        CsvTokenizer tokenizer = new CsvTokenizer(new MappedRangeInputStream(channel, start, end));
+        if (hasHeader) {
+            tokenizer.nextRow(); // Skip header
+        }
+        parseRows(tokenizer, withScaler((features, label) -> dataPoints.add(new DataPoint(features, label)), scaler));
         return dataPoints;
     }
 
+    /**
+     * Cuts the file into chunks that each start at the beginning of a row.
+     *
+     * A newline inside a quoted field is not a row boundary, and whether a byte is inside quotes depends on
+     * every quote before it. So this works in two steps:
+     * 1. In parallel, every fixed-size piece counts its quotes and remembers the first '\n' seen after an even
+     *    and after an odd number of its own quotes.
+     * 2. Walking the pieces in order, the running quote count tells which of the two is really outside quotes.
+     * @return The chunk start offsets, followed by the file size as the final end offset.
+     */
+    private long[] findRowAlignedChunks(FileChannel channel) throws IOException {
+        long size = channel.size();
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        long pieceSize = Math.max(MIN_CHUNK_BYTES, Math.min(MAX_CHUNK_BYTES, size / (parallelism * 4L) + 1));
+        int pieces = (int) ((size + pieceSize - 1) / pieceSize);
+
+        List<ForkJoinTask<long[]>> scans = new ArrayList<>();
+        for (int i = 0; i < pieces; i++) {
+            long start = i * pieceSize;
+            long end = Math.min(size, start + pieceSize);
+            scans.add(ForkJoinTask.adapt(() -> scanPiece(channel, start, end)));
+        }
+        ForkJoinTask.invokeAll(scans);
+
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+        long quotesSoFar = 0;
+        for (int i = 0; i < pieces; i++) {
+            long[] scan = scans.get(i).join();
+            if (i > 0) {
+                // The newline that is outside quotes is the one after an even total number of quotes.
+                long rowStart = scan[(int) (quotesSoFar & 1) + 1];
+                if (rowStart >= 0 && rowStart < size) {
+                    boundaries.add(rowStart);
+                }
+            }
+            quotesSoFar += scan[0];
+        }
+        boundaries.add(size);
+
+        long[] result = new long[boundaries.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = boundaries.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * @return {number of quotes, offset after the first '\n' at an even local quote count,
+     *          offset after the first '\n' at an odd local quote count}; -1 where no such newline exists.
+     */
+    private static long[] scanPiece(FileChannel channel, long start, long end) throws IOException {
+        MappedByteBuffer piece = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        long quotes = 0;
+        long afterEvenNewline = -1;
+        long afterOddNewline = -1;
+        int length = (int) (end - start);
+        for (int i = 0; i < length; i++) {
+            byte b = piece.get(i);
+            if (b == '"') {
+                quotes++;
+            } else if (b == '\n') {
+                if ((quotes & 1) == 0) {
+                    if (afterEvenNewline < 0) {
+                        afterEvenNewline = start + i + 1;
+                    }
+                } else if (afterOddNewline < 0) {
+                    afterOddNewline = start + i + 1;
+                }
+            }
+        }
+        return new long[] {quotes, afterEvenNewline, afterOddNewline};
+    }
+
 //    public static void main(String[] args) {
 //        // the csv file
 //        String filePath = "Processed.csv";
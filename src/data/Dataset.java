@@ -0,0 +1,281 @@
+package data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A whole dataset stored column by column in primitive arrays.
+ *
+ * Instead of one DataPoint object (with its own double[]) per student, every feature is one contiguous
+ * double[] over all rows, and the labels are a single int[]. Algorithms can then scan a feature with a
+ * plain array loop, which is much friendlier to the CPU cache than chasing a pointer per row.
+ *
+ * A Dataset can also be a view of some of the rows of another Dataset (see subset()). A view shares the
+ * feature storage with its parent and only stores the row numbers it contains, so it costs 4 bytes per row.
+ *
+ * The feature values live in a FeatureStorage: on the heap by default, or off-heap (optionally as float32)
+ * through toOffHeap() for datasets that are too large to hold comfortably on the heap.
+ */
+public class Dataset {
+
+    // The feature values of every storage row.
+    private final FeatureStorage storage;
+    private final int numFeatures;
+
+    // labels[r] is the class label of storage row r.
+    private final int[] labels;
+
+    // Which storage rows this view contains, in order. null means "all storage rows, in order".
+    private final int[] rows;
+
+    private final int size;
+
+    /**
+     * Creates a dataset from feature columns and labels. The arrays are used as they are, not copied.
+     * @param columns One array per feature, all with the same length as labels.
+     * @param labels The class label of every row.
+     */
+    public Dataset(double[][] columns, int[] labels) {
+        this(new HeapFeatureStorage(columns, labels.length), labels);
+    }
+
+    /**
+     * Creates a dataset on top of any feature storage.
+     * @param storage The feature values, one storage row per label.
+     * @param labels The class label of every row.
+     */
+    public Dataset(FeatureStorage storage, int[] labels) {
+        if (storage.getRowCount() != labels.length) {
+            throw new IllegalArgumentException("The storage has " + storage.getRowCount() + " rows but there are "
+                    + labels.length + " labels.");
+        }
+        this.storage = storage;
+        this.numFeatures = storage.getFeatureCount();
+        this.labels = labels;
+        this.rows = null;
+        this.size = labels.length;
+    }
+
+    private Dataset(FeatureStorage storage, int[] labels, int[] rows) {
+        this.storage = storage;
+        this.numFeatures = storage.getFeatureCount();
+        this.labels = labels;
+        this.rows = rows;
+        this.size = rows.length;
+    }
+
+    /**
+     * Copies a list of DataPoints into column storage.
+     * @param data The rows. All of them must have the same number of features.
+     * @return A new Dataset with the rows in list order.
+     */
+    public static Dataset fromDataPoints(List<DataPoint> data) {
+        int numRows = data.size();
+        int numFeatures = numRows == 0 ? 0 : data.get(0).getFeatureCount();
+        double[][] columns = new double[numFeatures][numRows];
+        int[] labels = new int[numRows];
+        for (int r = 0; r < numRows; r++) {
+            DataPoint dp = data.get(r);
+            double[] features = dp.getFeatures();
+            if (features.length != numFeatures) {
+                throw new IllegalArgumentException("Row " + r + " has " + features.length
+                        + " features, expected " + numFeatures + ".");
+            }
+            for (int f = 0; f < numFeatures; f++) {
+                columns[f][r] = features[f];
+            }
+            labels[r] = dp.getLabel();
+        }
+        return new Dataset(columns, labels);
+    }
+
+    /**
+     * @return The number of rows in this dataset (or view).
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getFeatureCount() {
+        return numFeatures;
+    }
+
+    /**
+     * @param row The row number within this dataset.
+     * @param feature The feature index.
+     * @return The value of that feature in that row.
+     */
+    public double getFeature(int row, int feature) {
+        return storage.get(storageRow(row), feature);
+    }
+
+    public int getLabel(int row) {
+        return labels[storageRow(row)];
+    }
+
+    /**
+     * Copies the features of one row into an existing array, so no memory is allocated per row.
+     * @param row The row number within this dataset.
+     * @param destination An array with at least getFeatureCount() elements.
+     */
+    public void copyRow(int row, double[] destination) {
+        int r = storageRow(row);
+        for (int f = 0; f < numFeatures; f++) {
+            destination[f] = storage.get(r, f);
+        }
+    }
+
+    /**
+     * Copies the features of rows [from, to) into 'destination', row after row: row from + i starts at
+     * i * getFeatureCount(). The values are read one feature at a time, as a plain loop over the backing column,
+     * so this is the fast way to read a block of rows.
+     * @param destination An array with at least (to - from) * getFeatureCount() elements.
+     */
+    public void copyRows(int from, int to, double[] destination) {
+        if (from < 0 || from > to || to > size) {
+            throw new IndexOutOfBoundsException("Rows [" + from + ", " + to
+                    + ") are out of bounds for a dataset of size " + size + ".");
+        }
+        for (int f = 0; f < numFeatures; f++) {
+            double[] column = storage.getColumn(f);
+            if (column == null) {
+                for (int row = from, i = f; row < to; row++, i += numFeatures) {
+                    destination[i] = storage.get(rows == null ? row : rows[row], f);
+                }
+            } else if (rows == null) {
+                for (int row = from, i = f; row < to; row++, i += numFeatures) {
+                    destination[i] = column[row];
+                }
+            } else {
+                for (int row = from, i = f; row < to; row++, i += numFeatures) {
+                    destination[i] = column[rows[row]];
+                }
+            }
+        }
+    }
+
+    /**
+     * Bulk access for tight loops: the backing array of one feature, indexed by row, when this dataset is a plain
+     * heap dataset (HeapFeatureStorage, not a view). Nothing is copied, so do not modify it.
+     * @param feature The feature index.
+     * @return The column, or null for a view or off-heap storage: read those through getFeature() or copyRows().
+     */
+    public double[] getColumn(int feature) {
+        return rows == null ? storage.getColumn(feature) : null;
+    }
+
+    /**
+     * Bulk access for tight loops: the backing array of the labels, indexed by row. Nothing is copied, so do not
+     * modify it.
+     * @return The labels, or null for a view: read those through getLabel().
+     */
+    public int[] getLabels() {
+        return rows == null ? labels : null;
+    }
+
+    /**
+     * @return A lightweight view of one row. It reads straight from the columns and copies nothing.
+     */
+    public Row row(int row) {
+        return new Row(this, storageRow(row));
+    }
+
+    /**
+     * @return The number of classes, taken as the largest label plus one (0 for an empty dataset).
+     */
+    public int getClassCount() {
+        int maxLabel = -1;
+        for (int i = 0; i < size; i++) {
+            maxLabel = Math.max(maxLabel, getLabel(i));
+        }
+        return maxLabel + 1;
+    }
+
+    /**
+     * Creates a view of some rows of this dataset. Nothing but the row numbers is copied.
+     * @param rowIndices Row numbers within this dataset. They may be in any order and may repeat.
+     * @return A Dataset that sees exactly those rows, in that order.
+     */
+    public Dataset subset(int[] rowIndices) {
+        int[] storageRows = new int[rowIndices.length];
+        for (int i = 0; i < rowIndices.length; i++) {
+            storageRows[i] = storageRow(rowIndices[i]);
+        }
+        return new Dataset(storage, labels, storageRows);
+    }
+
+    /**
+     * Copies the rows of this dataset (or view) into off-heap storage at FLOAT64, keeping every value exact.
+     * @return A new Dataset with the same rows in the same order, backed by off-heap memory.
+     */
+    public Dataset toOffHeap() {
+        return toOffHeap(OffHeapFeatureStorage.Precision.FLOAT64);
+    }
+
+    /**
+     * Copies the rows of this dataset (or view) into off-heap storage. The labels stay on the heap.
+     * @param precision FLOAT64 keeps the values bit-exact. FLOAT32 halves the memory but is lossy: values are
+     *                  rounded to the nearest float.
+     * @return A new Dataset with the same rows in the same order, backed by off-heap memory.
+     */
+    public Dataset toOffHeap(OffHeapFeatureStorage.Precision precision) {
+        OffHeapFeatureStorage offHeap = new OffHeapFeatureStorage(numFeatures, precision, size);
+        double[] row = new double[numFeatures];
+        int[] labelCopy = new int[size];
+        for (int i = 0; i < size; i++) {
+            copyRow(i, row);
+            offHeap.addRow(row);
+            labelCopy[i] = getLabel(i);
+        }
+        return new Dataset(offHeap, labelCopy);
+    }
+
+    /**
+     * Copies the rows back into DataPoint objects, for code that still works with lists.
+     */
+    public List<DataPoint> toDataPoints() {
+        List<DataPoint> data = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            double[] features = new double[numFeatures];
+            copyRow(i, features);
+            data.add(new DataPoint(features, getLabel(i)));
+        }
+        return data;
+    }
+
+    private int storageRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " is out of bounds for a dataset of size " + size + ".");
+        }
+        return rows == null ? row : rows[row];
+    }
+
+    /**
+     * A view of a single row that reads its values from the dataset's columns.
+     */
+    public static class Row {
+        private final Dataset dataset;
+        private final int storageRow;
+
+        private Row(Dataset dataset, int storageRow) {
+            this.dataset = dataset;
+            this.storageRow = storageRow;
+        }
+
+        public double getFeature(int feature) {
+            return dataset.storage.get(storageRow, feature);
+        }
+
+        public int getLabel() {
+            return dataset.labels[storageRow];
+        }
+
+        public int getFeatureCount() {
+            return dataset.numFeatures;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package data;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A compact binary file holding the already-encoded features and labels, so a run does not have to parse
+ * and encode the CSV again.
+ *
+ * Layout (big-endian):
+ *   int    magic ("SPLF")
+ *   int    format version
+ *   long   schema hash (which columns and encoders produced the features)
+ *   int    number of rows
+ *   int    number of features
+ *   double[rows] for feature 0, then feature 1, ... (one column after another)
+ *   int[rows]    labels
+ */
+public class FeatureCache {
+
+    private static final int MAGIC = 0x53504C46; // "SPLF"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 4 + 4;
+    // A single mapping can not be larger than 2 GB, so the columns are read through windows of this size.
+    private static final long WINDOW_BYTES = 1L << 30;
+
+    private FeatureCache() {
+    }
+
+    /**
+     * Writes the data to a cache file. The file is written next to its final location first and then moved
+     * into place, so a half-written cache is never picked up.
+     * @param file Where to write the cache.
+     * @param data The encoded rows.
+     * @param schemaHash A hash describing how the features were produced.
+     */
+    public static void write(Path file, Dataset data, long schemaHash) throws IOException {
+        int rows = data.size();
+        int numFeatures = data.getFeatureCount();
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream fileOut = Files.newOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(schemaHash);
+            out.writeInt(rows);
+            out.writeInt(numFeatures);
+            // One column at a time, so a single feature can be read as one contiguous block.
+            for (int f = 0; f < numFeatures; f++) {
+                for (int r = 0; r < rows; r++) {
+                    out.writeDouble(data.getFeature(r, f));
+                }
+            }
+            for (int r = 0; r < rows; r++) {
+                out.writeInt(data.getLabel(r));
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a cache file through memory mappings, one window of at most WINDOW_BYTES at a time, so caches larger
+     * than 2 GB can be read too.
+     * @param file The cache file.
+     * @param schemaHash The hash the cache must have been written with.
+     * @return The rows, or null if the file is missing, damaged or was written for a different schema.
+     */
+    public static Dataset read(Path file, long schemaHash) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                return null; // too small to be a cache
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION || header.getLong() != schemaHash) {
+                return null;
+            }
+            int rows = header.getInt();
+            int numFeatures = header.getInt();
+            long expectedSize = HEADER_BYTES + (long) rows * numFeatures * Double.BYTES + (long) rows * Integer.BYTES;
+            if (rows < 0 || numFeatures < 0 || size != expectedSize) {
+                return null;
+            }
+
+            // The file is already in column order, so every column is one bulk copy per window.
+            long position = HEADER_BYTES;
+            double[][] columns = new double[numFeatures][rows];
+            for (int f = 0; f < numFeatures; f++) {
+                readDoubles(channel, position, columns[f]);
+                position += (long) rows * Double.BYTES;
+            }
+            int[] labels = new int[rows];
+            readInts(channel, position, labels);
+            return new Dataset(columns, labels);
+        }
+    }
+
+    // Fills the array from the doubles starting at 'position' in the file.
+    private static void readDoubles(FileChannel channel, long position, double[] destination) throws IOException {
+        int done = 0;
+        while (done < destination.length) {
+            int count = (int) Math.min(destination.length - done, WINDOW_BYTES / Double.BYTES);
+            channel.map(FileChannel.MapMode.READ_ONLY, position + (long) done * Double.BYTES, (long) count * Double.BYTES)
+                    .asDoubleBuffer().get(destination, done, count);
+            done += count;
+        }
+    }
+
+    // Fills the array from the ints starting at 'position' in the file.
+    private static void readInts(FileChannel channel, long position, int[] destination) throws IOException {
+        int done = 0;
+        while (done < destination.length) {
+            int count = (int) Math.min(destination.length - done, WINDOW_BYTES / Integer.BYTES);
+            channel.map(FileChannel.MapMode.READ_ONLY, position + (long) done * Integer.BYTES, (long) count * Integer.BYTES)
+                    .asIntBuffer().get(destination, done, count);
+            done += count;
+        }
+    }
+
+    /**
+     * A 64-bit FNV-1a hash of a schema description, used to detect caches written by a different loader.
+     */
+    public static long schemaHash(String schemaDescription) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < schemaDescription.length(); i++) {
+            hash ^= schemaDescription.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,215 @@
+package data;
+
+import java.util.Arrays;
+
+/**
+ * Rescales every feature to a comparable range, e.g. Age (~20), CGPA (~3) and Anxiety Value (0-21).
+ *
+ * The statistics are collected in a single streaming pass with Welford's algorithm (mean and variance, plus
+ * min and max), one row at a time, so the scaler can be filled while the CSV is being loaded. Two scalers
+ * that saw different parts of the data can be merged, which is how the parallel loader combines its chunks.
+ *
+ * After fitting, transform() maps a value with one subtraction and one multiplication and never allocates.
+ * The models keep a copy() of the scaler they were trained with and apply it again at prediction time.
+ */
+public class FeatureScaler {
+
+    /**
+     * What "comparable range" means.
+     */
+    public enum Mode {
+        // (x - mean) / standard deviation
+        STANDARDIZE,
+        // (x - min) / (max - min), so the training values fall into [0, 1]
+        MIN_MAX
+    }
+
+    private final Mode mode;
+    private final int numFeatures;
+
+    // Running statistics (Welford): number of rows, mean, and sum of squared differences from the mean.
+    private long count;
+    private final double[] mean;
+    private final double[] m2;
+    private final double[] min;
+    private final double[] max;
+
+    // transform(f, x) = (x - offset[f]) * factor[f]. Recomputed when the statistics change.
+    // Published through a volatile field so that predictions on several threads see a complete array pair.
+    private volatile double[][] parameters;
+
+    /**
+     * Creates an empty scaler.
+     * @param numFeatures The number of features per row.
+     * @param mode STANDARDIZE or MIN_MAX.
+     */
+    public FeatureScaler(int numFeatures, Mode mode) {
+        this.mode = mode;
+        this.numFeatures = numFeatures;
+        this.mean = new double[numFeatures];
+        this.m2 = new double[numFeatures];
+        this.min = new double[numFeatures];
+        this.max = new double[numFeatures];
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * @return A new, empty scaler with the same mode and number of features.
+     */
+    public FeatureScaler emptyCopy() {
+        return new FeatureScaler(numFeatures, mode);
+    }
+
+    /**
+     * @return An independent copy of this scaler and its statistics. Rows added to either scaler later do not
+     *         change how the other one scales, which is how a model keeps the scaling it was trained with.
+     */
+    public FeatureScaler copy() {
+        FeatureScaler copy = new FeatureScaler(numFeatures, mode);
+        copy.count = count;
+        System.arraycopy(mean, 0, copy.mean, 0, numFeatures);
+        System.arraycopy(m2, 0, copy.m2, 0, numFeatures);
+        System.arraycopy(min, 0, copy.min, 0, numFeatures);
+        System.arraycopy(max, 0, copy.max, 0, numFeatures);
+        return copy;
+    }
+
+    /**
+     * Adds one row to the statistics (one step of Welford's algorithm).
+     * @param features The feature values of the row.
+     */
+    public void accept(double[] features) {
+        count++;
+        for (int f = 0; f < numFeatures; f++) {
+            double x = features[f];
+            double delta = x - mean[f];
+            mean[f] += delta / count;
+            m2[f] += delta * (x - mean[f]);
+            if (x < min[f]) {
+                min[f] = x;
+            }
+            if (x > max[f]) {
+                max[f] = x;
+            }
+        }
+        if (parameters != null) { // only pay for the volatile write when there is something to reset
+            parameters = null;
+        }
+    }
+
+    /**
+     * Adds all rows of a dataset (or view) to the statistics.
+     */
+    public void fit(Dataset data) {
+        double[] row = new double[numFeatures];
+        for (int i = 0; i < data.size(); i++) {
+            data.copyRow(i, row);
+            accept(row);
+        }
+    }
+
+    /**
+     * Combines the statistics of another scaler into this one, as if this scaler had seen its rows too
+     * (Chan et al.'s parallel variance formula).
+     * @param other A scaler with the same number of features.
+     */
+    public void merge(FeatureScaler other) {
+        if (other.numFeatures != numFeatures) {
+            throw new IllegalArgumentException("Can not merge scalers with different numbers of features.");
+        }
+        if (other.count == 0) {
+            return;
+        }
+        long total = count + other.count;
+        for (int f = 0; f < numFeatures; f++) {
+            double delta = other.mean[f] - mean[f];
+            mean[f] += delta * other.count / total;
+            m2[f] += other.m2[f] + delta * delta * ((double) count * other.count / total);
+            min[f] = Math.min(min[f], other.min[f]);
+            max[f] = Math.max(max[f], other.max[f]);
+        }
+        count = total;
+        parameters = null;
+    }
+
+    /**
+     * Scales a single feature value.
+     * @param feature The feature index.
+     * @param value The raw value.
+     * @return The scaled value.
+     */
+    public double transform(int feature, double value) {
+        double[][] p = fittedParameters();
+        return (value - p[0][feature]) * p[1][feature];
+    }
+
+    /**
+     * Scales a whole row. 'source' and 'destination' may be the same array.
+     */
+    public void transform(double[] source, double[] destination) {
+        double[][] p = fittedParameters();
+        double[] offset = p[0];
+        double[] factor = p[1];
+        for (int f = 0; f < numFeatures; f++) {
+            destination[f] = (source[f] - offset[f]) * factor[f];
+        }
+    }
+
+    /**
+     * Scales a block of rows in place, stored one after another as Dataset.copyRows() writes them.
+     * @param rows The rows.
+     * @param count The number of rows.
+     */
+    public void transformRows(double[] rows, int count) {
+        double[][] p = fittedParameters();
+        double[] offset = p[0];
+        double[] factor = p[1];
+        for (int r = 0, start = 0; r < count; r++, start += numFeatures) {
+            for (int f = 0; f < numFeatures; f++) {
+                rows[start + f] = (rows[start + f] - offset[f]) * factor[f];
+            }
+        }
+    }
+
+    public Mode getMode() { return mode; }
+    public int getFeatureCount() { return numFeatures; }
+    public long getCount() { return count; }
+    public double getMean(int feature) { return mean[feature]; }
+    public double getMin(int feature) { return min[feature]; }
+    public double getMax(int feature) { return max[feature]; }
+
+    /**
+     * @return The population variance of the feature over all rows seen so far.
+     */
+    public double getVariance(int feature) {
+        return count == 0 ? 0.0 : m2[feature] / count;
+    }
+
+    private double[][] fittedParameters() {
+        double[][] p = parameters;
+        if (p != null) {
+            return p;
+        }
+        if (count == 0) {
+            throw new IllegalStateException("FeatureScaler has not seen any data yet.");
+        }
+        double[] offset = new double[numFeatures];
+        double[] factor = new double[numFeatures];
+        for (int f = 0; f < numFeatures; f++) {
+            double spread;
+            if (mode == Mode.STANDARDIZE) {
+                offset[f] = mean[f];
+                spread = Math.sqrt(getVariance(f));
+            } else {
+                offset[f] = min[f];
+                spread = max[f] - min[f];
+            }
+            // A constant feature is only shifted, not blown up by a division by zero.
+            factor[f] = spread > 0 ? 1.0 / spread : 1.0;
+        }
+        p = new double[][] {offset, factor};
+        parameters = p;
+        return p;
+    }
+}
@@ -0,0 +1,36 @@
+package data;
+
+/**
+ * Where a Dataset keeps its feature values.
+ *
+ * Rows here are storage rows (a Dataset view maps its own row numbers onto them). The default is
+ * HeapFeatureStorage, one double[] per feature; OffHeapFeatureStorage keeps the values outside the Java heap.
+ */
+public interface FeatureStorage {
+
+    /**
+     * @return The number of rows stored.
+     */
+    int getRowCount();
+
+    /**
+     * @return The number of features per row.
+     */
+    int getFeatureCount();
+
+    /**
+     * @param row The storage row.
+     * @param feature The feature index.
+     * @return The value of that feature in that row.
+     */
+    double get(int row, int feature);
+
+    /**
+     * Bulk access for tight loops: the array holding one feature of every storage row, indexed by storage row.
+     * @param feature The feature index.
+     * @return The backing array itself (do not modify it), or null if the values are not kept in a double[].
+     */
+    default double[] getColumn(int feature) {
+        return null;
+    }
+}
@@ -0,0 +1,45 @@
+package data;
+
+/**
+ * Feature values on the Java heap, one contiguous double[] per feature.
+ */
+public class HeapFeatureStorage implements FeatureStorage {
+
+    // columns[f][r] is feature f of row r.
+    private final double[][] columns;
+    private final int rowCount;
+
+    /**
+     * @param columns One array per feature, all of the same length. They are used as they are, not copied.
+     * @param rowCount The number of rows (the length of every column).
+     */
+    public HeapFeatureStorage(double[][] columns, int rowCount) {
+        for (double[] column : columns) {
+            if (column.length != rowCount) {
+                throw new IllegalArgumentException("Every feature column must have " + rowCount + " values.");
+            }
+        }
+        this.columns = columns;
+        this.rowCount = rowCount;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getFeatureCount() {
+        return columns.length;
+    }
+
+    @Override
+    public double get(int row, int feature) {
+        return columns[feature][row];
+    }
+
+    @Override
+    public double[] getColumn(int feature) {
+        return columns[feature];
+    }
+}
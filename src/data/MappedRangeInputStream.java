@@ -0,0 +1,72 @@
+package data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a byte range of a file through memory-mapped windows.
+ *
+ * A single MappedByteBuffer can not be larger than 2 GB, so the range is mapped piece by piece as the reader
+ * moves through it. The channel is owned by the caller and must stay open while this stream is used.
+ *
+ * The project targets Java 21, where the Foreign Function and Memory API (a MemorySegment mapped into an Arena,
+ * with no 2 GB limit) is still a preview feature that needs --enable-preview to compile and run; it is final
+ * from Java 22. Mapping 1 GB windows with FileChannel.map reads the same bytes without it.
+ */
+class MappedRangeInputStream extends InputStream {
+
+    // How much of the file is mapped at once.
+    private static final long WINDOW_BYTES = 1L << 30;
+
+    private final FileChannel channel;
+    private final long end;
+    private long nextWindowStart;
+    private MappedByteBuffer window;
+
+    /**
+     * @param channel An open channel of the file.
+     * @param start The first byte of the range (inclusive).
+     * @param end The end of the range (exclusive).
+     */
+    MappedRangeInputStream(FileChannel channel, long start, long end) {
+        this.channel = channel;
+        this.end = end;
+        this.nextWindowStart = start;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureWindow()) {
+            return -1;
+        }
+        return window.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] dst, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureWindow()) {
+            return -1;
+        }
+        int n = Math.min(len, window.remaining());
+        window.get(dst, off, n);
+        return n;
+    }
+
+    private boolean ensureWindow() throws IOException {
+        if (window != null && window.hasRemaining()) {
+            return true;
+        }
+        if (nextWindowStart >= end) {
+            return false;
+        }
+        long length = Math.min(WINDOW_BYTES, end - nextWindowStart);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, nextWindowStart, length);
+        nextWindowStart += length;
+        return true;
+    }
+}
@@ -0,0 +1,148 @@
+package data;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Feature values kept outside the Java heap in direct ByteBuffers, one buffer per feature.
+ *
+ * A heap DataPoint spends roughly 100 bytes on object and array headers for 56 bytes of features. Here a row
+ * costs exactly numFeatures * 4 bytes (FLOAT32) or numFeatures * 8 bytes (FLOAT64), and the garbage collector
+ * never has to look at it.
+ *
+ * FLOAT64 stores the values bit-exact and is the default of DataLoader.loadDatasetOffHeap and
+ * Dataset.toOffHeap. FLOAT32 is lossy: values such as 2.745 come back as the nearest float (2.7450001...), which
+ * can move a tree's split threshold or change which neighbours tie in KNN. Only choose it when halving the memory
+ * matters more than reproducing the heap results exactly.
+ *
+ * Direct memory is limited by -XX:MaxDirectMemorySize (by default the same as the maximum heap size), so
+ * raise that limit when running with a small heap and a large dataset.
+ *
+ * Direct ByteBuffers rather than MemorySegments: the project targets Java 21, where the Foreign Function and
+ * Memory API is a preview feature (final from Java 22). A ByteBuffer holds at most 2 GB, so one storage holds at
+ * most 2^31 / 8 rows (about 268 million) at FLOAT64 and twice that at FLOAT32; addRow() throws an
+ * IllegalStateException beyond that.
+ */
+public class OffHeapFeatureStorage implements FeatureStorage {
+
+    /**
+     * How many bytes each stored value uses.
+     */
+    public enum Precision {
+        /** 4 bytes per value, rounded to the nearest float: lossy. */
+        FLOAT32(Float.BYTES),
+        /** 8 bytes per value, bit-exact. */
+        FLOAT64(Double.BYTES);
+
+        private final int bytes;
+
+        Precision(int bytes) {
+            this.bytes = bytes;
+        }
+
+        public int getBytes() {
+            return bytes;
+        }
+    }
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 1024;
+
+    private final Precision precision;
+    private final boolean singlePrecision;
+    private final int numFeatures;
+
+    // columns[f] holds feature f of every row, 'precision.bytes' bytes per row, in native byte order.
+    private ByteBuffer[] columns;
+    private int capacity;
+    private int rowCount;
+
+    /**
+     * Creates an empty storage that grows as rows are added.
+     * @param numFeatures The number of features per row.
+     * @param precision FLOAT64 to keep the values bit-exact, FLOAT32 to halve the memory (lossy).
+     */
+    public OffHeapFeatureStorage(int numFeatures, Precision precision) {
+        this(numFeatures, precision, DEFAULT_INITIAL_CAPACITY);
+    }
+
+    /**
+     * Creates an empty storage with room for 'initialCapacity' rows before it has to grow.
+     */
+    public OffHeapFeatureStorage(int numFeatures, Precision precision, int initialCapacity) {
+        this.precision = precision;
+        this.singlePrecision = (precision == Precision.FLOAT32);
+        this.numFeatures = numFeatures;
+        this.columns = new ByteBuffer[numFeatures];
+        allocate(Math.max(initialCapacity, 1));
+    }
+
+    /**
+     * Appends one row, growing the buffers if needed.
+     * @param features The feature values of the row (numFeatures of them).
+     */
+    public void addRow(double[] features) {
+        if (rowCount == capacity) {
+            long newCapacity = Math.min((long) capacity * 2, Integer.MAX_VALUE / precision.bytes);
+            if (newCapacity <= capacity) {
+                throw new IllegalStateException("Off-heap feature storage is full (" + capacity + " rows).");
+            }
+            allocate((int) newCapacity);
+        }
+        for (int f = 0; f < numFeatures; f++) {
+            put(rowCount, f, features[f]);
+        }
+        rowCount++;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getFeatureCount() {
+        return numFeatures;
+    }
+
+    @Override
+    public double get(int row, int feature) {
+        if (singlePrecision) {
+            return columns[feature].getFloat(row << 2);
+        }
+        return columns[feature].getDouble(row << 3);
+    }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    /**
+     * @return The number of bytes of direct memory used by the buffers (including unused capacity).
+     */
+    public long getOffHeapBytes() {
+        return (long) capacity * precision.bytes * numFeatures;
+    }
+
+    private void put(int row, int feature, double value) {
+        if (singlePrecision) {
+            columns[feature].putFloat(row << 2, (float) value);
+        } else {
+            columns[feature].putDouble(row << 3, value);
+        }
+    }
+
+    // Replaces the buffers with bigger ones and copies the rows stored so far.
+    private void allocate(int newCapacity) {
+        for (int f = 0; f < numFeatures; f++) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(newCapacity * precision.bytes).order(ByteOrder.nativeOrder());
+            if (columns[f] != null) {
+                ByteBuffer old = columns[f].duplicate();
+                old.position(0).limit(rowCount * precision.bytes);
+                buffer.put(old);
+                buffer.clear();
+            }
+            columns[f] = buffer;
+        }
+        this.capacity = newCapacity;
+    }
+}
@@ -1,8 +1,12 @@
 package data;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.function.IntUnaryOperator;
 
 public class Preprocessor {
 
@@ -11,28 +15,263 @@ public class Preprocessor {
      * @param data The full list of DataPoints.
      * @param trainSplitRatio The proportion of data for the training set (e.g., 0.8 for 80%).
      * @return A List containing two lists: the training set at index 0, and the testing set at index 1.
+     *         Both are read-only views of 'data'; no DataPoint is copied.
      */
     public static List<List<DataPoint>> splitData(List<DataPoint> data, double trainSplitRatio) {
-        // Creating a mutable copy of the data to avoid modifying the original list.
-        List<DataPoint> shuffledData = new ArrayList<>(data);
+        return splitData(data, trainSplitRatio, new Random());
+    }
 
-        // Randomly shuffle the data. This is crucial to ensure that the train and test sets
+    /**
+     * Same as splitData(data, ratio), but with a fixed seed so the split can be reproduced.
+     */
+    public static List<List<DataPoint>> splitData(List<DataPoint> data, double trainSplitRatio, long seed) {
+        return splitData(data, trainSplitRatio, new Random(seed));
+    }
+
+    private static List<List<DataPoint>> splitData(List<DataPoint> data, double trainSplitRatio, Random random) {
+        // Randomly shuffle the row numbers (not the data). This is crucial to ensure that the train and test sets
         // are representative of the overall data and not biased by any original ordering.
-        Collections.shuffle(shuffledData);
+        int[] order = shuffledIndices(data.size(), random);
 
         // Calculate the index where we will split the data.
-        int splitIndex = (int) (shuffledData.size() * trainSplitRatio);
-
-        // Create the training set as a sublist from the beginning to the split index.
-        List<DataPoint> trainingSet = new ArrayList<>(shuffledData.subList(0, splitIndex));
-
-        // Create the testing set as a sublist from the split index to the end.
-        List<DataPoint> testingSet = new ArrayList<>(shuffledData.subList(splitIndex, shuffledData.size()));
+        int splitIndex = (int) (order.length * trainSplitRatio);
+        Split split = new Split(Arrays.copyOfRange(order, 0, splitIndex), Arrays.copyOfRange(order, splitIndex, order.length));
 
         // Return both sets in a container list.
         List<List<DataPoint>> result = new ArrayList<>();
-        result.add(trainingSet);
-        result.add(testingSet);
+        result.add(split.trainView(data));
+        result.add(split.testView(data));
         return result;
     }
+
+    /**
+     * Splits a dataset into training and testing rows.
+     * @param data The dataset to split.
+     * @param trainSplitRatio The proportion of rows for the training set (e.g., 0.8 for 80%).
+     * @param stratify If true, every class is split with the same ratio, so both sets keep the class balance.
+     * @param seed The seed of the random shuffle; the same seed always gives the same split.
+     * @return The row numbers of both sets. Use split.trainView(data)/testView(data) to get the rows.
+     */
+    public static Split trainTestSplit(Dataset data, double trainSplitRatio, boolean stratify, long seed) {
+        return trainTestSplit(data.size(), data::getLabel, trainSplitRatio, stratify, new Random(seed));
+    }
+
+    /**
+     * Same as trainTestSplit(Dataset, ...) for a list of DataPoints, stratifying by DataPoint.getLabel().
+     */
+    public static Split trainTestSplit(List<DataPoint> data, double trainSplitRatio, boolean stratify, long seed) {
+        return trainTestSplit(data.size(), i -> data.get(i).getLabel(), trainSplitRatio, stratify, new Random(seed));
+    }
+
+    /**
+     * Generates the k folds of k-fold cross-validation. Each fold is tested once and the other k-1 folds
+     * are used for training. The folds are created one at a time while iterating.
+     * @param data The dataset.
+     * @param k The number of folds (at least 2).
+     * @param stratify If true, every fold gets the same class balance as the whole dataset.
+     * @param seed The seed of the random shuffle.
+     * @return The k splits.
+     */
+    public static Iterable<Split> kFold(Dataset data, int k, boolean stratify, long seed) {
+        return repeatedKFold(data, k, 1, stratify, seed);
+    }
+
+    /**
+     * Same as kFold(Dataset, ...) for a list of DataPoints.
+     */
+    public static Iterable<Split> kFold(List<DataPoint> data, int k, boolean stratify, long seed) {
+        return repeatedKFold(data, k, 1, stratify, seed);
+    }
+
+    /**
+     * Runs k-fold cross-validation several times, each time with a different shuffle.
+     * @param data The dataset.
+     * @param k The number of folds per repeat (at least 2).
+     * @param repeats How many times to repeat the k folds.
+     * @param stratify If true, every fold gets the same class balance as the whole dataset.
+     * @param seed The seed of the random shuffles.
+     * @return k * repeats splits, repeat after repeat.
+     */
+    public static Iterable<Split> repeatedKFold(Dataset data, int k, int repeats, boolean stratify, long seed) {
+        return repeatedKFold(data.size(), data::getLabel, k, repeats, stratify, seed);
+    }
+
+    /**
+     * Same as repeatedKFold(Dataset, ...) for a list of DataPoints.
+     */
+    public static Iterable<Split> repeatedKFold(List<DataPoint> data, int k, int repeats, boolean stratify, long seed) {
+        return repeatedKFold(data.size(), i -> data.get(i).getLabel(), k, repeats, stratify, seed);
+    }
+
+    /**
+     * @return The numbers 0..n-1 in random order (a Fisher-Yates shuffle of a primitive array).
+     */
+    public static int[] shuffledIndices(int n, Random random) {
+        int[] indices = new int[n];
+        for (int i = 0; i < n; i++) {
+            indices[i] = i;
+        }
+        shuffle(indices, 0, n, random);
+        return indices;
+    }
+
+    // =================================================================
+    // HELPER METHODS
+    // =================================================================
+
+    private static Split trainTestSplit(int n, IntUnaryOperator labelOf, double trainSplitRatio,
+                                        boolean stratify, Random random) {
+        if (!stratify) {
+            int[] order = shuffledIndices(n, random);
+            int splitIndex = (int) (n * trainSplitRatio);
+            return new Split(Arrays.copyOfRange(order, 0, splitIndex), Arrays.copyOfRange(order, splitIndex, n));
+        }
+
+        // Split every class on its own with the same ratio.
+        int[][] byClass = rowsByClass(n, labelOf, random);
+        int trainCount = 0;
+        int[] classTrainCounts = new int[byClass.length];
+        for (int c = 0; c < byClass.length; c++) {
+            classTrainCounts[c] = (int) Math.round(byClass[c].length * trainSplitRatio);
+            trainCount += classTrainCounts[c];
+        }
+        int[] train = new int[trainCount];
+        int[] test = new int[n - trainCount];
+        int t = 0;
+        int s = 0;
+        for (int c = 0; c < byClass.length; c++) {
+            for (int i = 0; i < byClass[c].length; i++) {
+                if (i < classTrainCounts[c]) {
+                    train[t++] = byClass[c][i];
+                } else {
+                    test[s++] = byClass[c][i];
+                }
+            }
+        }
+        // Mix the classes again, so models that learn row by row do not see one class after the other.
+        shuffle(train, 0, train.length, random);
+        shuffle(test, 0, test.length, random);
+        return new Split(train, test);
+    }
+
+    private static Iterable<Split> repeatedKFold(int n, IntUnaryOperator labelOf, int k, int repeats,
+                                                 boolean stratify, long seed) {
+        if (k < 2 || k > n) {
+            throw new IllegalArgumentException("k must be between 2 and the number of rows (" + n + "), got " + k + ".");
+        }
+        return () -> new Iterator<Split>() {
+            private final Random random = new Random(seed);
+            private int repeat = 0;
+            private int fold = k; // forces a new shuffle on the first call
+
+            // order[foldStart[f] .. foldStart[f + 1]) are the rows of fold f in the current repeat.
+            private int[] order;
+            private int[] foldStart;
+
+            @Override
+            public boolean hasNext() {
+                return fold < k || repeat < repeats;
+            }
+
+            @Override
+            public Split next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                if (fold == k) {
+                    assignFolds();
+                    fold = 0;
+                    repeat++;
+                }
+                int from = foldStart[fold];
+                int to = foldStart[fold + 1];
+                fold++;
+
+                int[] test = Arrays.copyOfRange(order, from, to);
+                int[] train = new int[n - test.length];
+                System.arraycopy(order, 0, train, 0, from);
+                System.arraycopy(order, to, train, from, n - to);
+                return new Split(train, test);
+            }
+
+            private void assignFolds() {
+                int[] foldOf = new int[n];
+                if (stratify) {
+                    // Deal the (shuffled) rows of every class round-robin over the folds, continuing where the
+                    // previous class stopped, so all folds end up with nearly the same size and class balance.
+                    int next = 0;
+                    for (int[] rows : rowsByClass(n, labelOf, random)) {
+                        for (int row : rows) {
+                            foldOf[row] = next;
+                            next = (next + 1) % k;
+                        }
+                    }
+                } else {
+                    int[] shuffled = shuffledIndices(n, random);
+                    for (int i = 0; i < n; i++) {
+                        foldOf[shuffled[i]] = (int) ((long) i * k / n);
+                    }
+                }
+
+                // Counting sort of the rows by fold, then shuffle inside every fold.
+                foldStart = new int[k + 1];
+                for (int row = 0; row < n; row++) {
+                    foldStart[foldOf[row] + 1]++;
+                }
+                for (int f = 0; f < k; f++) {
+                    foldStart[f + 1] += foldStart[f];
+                }
+                order = new int[n];
+                int[] fill = Arrays.copyOf(foldStart, k);
+                for (int row = 0; row < n; row++) {
+                    order[fill[foldOf[row]]++] = row;
+                }
+                for (int f = 0; f < k; f++) {
+                    shuffle(order, foldStart[f], foldStart[f + 1], random);
+                }
+            }
+        };
+    }
+
+    /**
+     * Groups the row numbers by class label and shuffles every group.
+     * @return byClass[c] holds the rows with label c, in random order.
+     */
+    private static int[][] rowsByClass(int n, IntUnaryOperator labelOf, Random random) {
+        int numClasses = 0;
+        for (int i = 0; i < n; i++) {
+            int label = labelOf.applyAsInt(i);
+            if (label < 0) {
+                throw new IllegalArgumentException("Row " + i + " has a negative label: " + label);
+            }
+            numClasses = Math.max(numClasses, label + 1);
+        }
+        int[] counts = new int[numClasses];
+        for (int i = 0; i < n; i++) {
+            counts[labelOf.applyAsInt(i)]++;
+        }
+        int[][] byClass = new int[numClasses][];
+        for (int c = 0; c < numClasses; c++) {
+            byClass[c] = new int[counts[c]];
+        }
+        int[] fill = new int[numClasses];
+        for (int i = 0; i < n; i++) {
+            int label = labelOf.applyAsInt(i);
+            byClass[label][fill[label]++] = i;
+        }
+        for (int[] rows : byClass) {
+            shuffle(rows, 0, rows.length, random);
+        }
+        return byClass;
+    }
+
+    // Fisher-Yates shuffle of array[from .. to).
+    private static void shuffle(int[] array, int from, int to, Random random) {
+        for (int i = to - 1; i > from; i--) {
+            int j = from + random.nextInt(i - from + 1);
+            int tmp = array[i];
+            array[i] = array[j];
+            array[j] = tmp;
+        }
+    }
 }
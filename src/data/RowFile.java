@@ -0,0 +1,319 @@
+package data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * A binary file of encoded rows, for training on data that does not fit in memory. Unlike FeatureCache (one
+ * column after another), the rows are stored one after another, so an epoch can stream through the file and
+ * never needs more than a block of it at a time.
+ *
+ * Layout (big-endian):
+ *   int    magic ("SPLR")
+ *   int    format version
+ *   long   number of rows
+ *   int    number of features
+ *   then per row: double[features], int label
+ *
+ * A pass reads the file in blocks of BLOCK_ROWS rows. While the caller works on one block, the next one is
+ * memory-mapped and loaded into the page cache on the ForkJoin pool, so the reads overlap with the training.
+ * A pass can also visit the blocks in a random order and the rows of each block in a random order (a
+ * "shuffled-block" order): nearly as good for SGD as a full shuffle, but the disk still reads whole blocks.
+ * The heap holds only the block order and one block's row order, whatever the size of the file.
+ */
+public class RowFile implements Closeable {
+
+    private static final int MAGIC = 0x53504C52; // "SPLR"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 4;
+
+    // Rows per block (about 4 MB with 7 features).
+    private static final int BLOCK_ROWS = 64 * 1024;
+
+    private final FileChannel channel;
+    private final long rowCount;
+    private final int numFeatures;
+    private final int rowBytes;
+
+    private RowFile(FileChannel channel, long rowCount, int numFeatures) {
+        this.channel = channel;
+        this.rowCount = rowCount;
+        this.numFeatures = numFeatures;
+        this.rowBytes = numFeatures * Double.BYTES + Integer.BYTES;
+    }
+
+    /**
+     * Opens a row file for reading. Close it when done.
+     * @param file The file, written by a RowFile.Writer.
+     * @return The opened file.
+     * @throws IOException If the file can not be read or is not a complete row file.
+     */
+    public static RowFile open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // keep reading until the header is complete
+            }
+            header.flip();
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION) {
+                throw new IOException(file + " is not a row file.");
+            }
+            long rows = header.getLong();
+            int numFeatures = header.getInt();
+            long rowBytes = (long) numFeatures * Double.BYTES + Integer.BYTES;
+            if (rows < 0 || numFeatures < 0 || channel.size() != HEADER_BYTES + rows * rowBytes) {
+                throw new IOException(file + " is damaged or incomplete.");
+            }
+            return new RowFile(channel, rows, numFeatures);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes a whole dataset to a row file.
+     * @param file Where to write the file.
+     * @param data The rows, written in dataset order.
+     */
+    public static void write(Path file, Dataset data) throws IOException {
+        double[] row = new double[data.getFeatureCount()];
+        try (Writer writer = new Writer(file, data.getFeatureCount())) {
+            for (int i = 0; i < data.size(); i++) {
+                data.copyRow(i, row);
+                writer.addRow(row, data.getLabel(i));
+            }
+        }
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    public int getFeatureCount() {
+        return numFeatures;
+    }
+
+    /**
+     * Starts one pass over all rows.
+     * @param shuffle null to visit the rows in file order; otherwise the source of a new shuffled-block order.
+     * @return The pass, positioned before the first row.
+     */
+    public Pass pass(Random shuffle) {
+        return new Pass(shuffle);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * One pass over the rows of the file. Not thread-safe; every thread needs its own pass.
+     */
+    public class Pass {
+        private final Random shuffle;
+        private final int[] blockOrder;
+        // The row order within the current block, used when shuffling.
+        private final int[] rowOrder;
+
+        private int nextBlock;
+        private ForkJoinTask<MappedByteBuffer> prefetch;
+        private MappedByteBuffer block;
+        private int blockSize;
+        private int rowInBlock;
+        private int rowOffset;
+        private long blockFirstRow;
+        private long currentRow;
+
+        private Pass(Random shuffle) {
+            this.shuffle = shuffle;
+            int blocks = (int) ((rowCount + BLOCK_ROWS - 1) / BLOCK_ROWS);
+            this.blockOrder = new int[blocks];
+            for (int b = 0; b < blocks; b++) {
+                blockOrder[b] = b;
+            }
+            this.rowOrder = shuffle == null ? null : new int[BLOCK_ROWS];
+            if (shuffle != null) {
+                shuffleInPlace(blockOrder, blocks);
+            }
+            if (blocks > 0) {
+                prefetch = prefetch(blockOrder[0]);
+            }
+        }
+
+        /**
+         * Moves to the next row.
+         * @return false when every row has been visited.
+         */
+        public boolean next() {
+            if (block == null || ++rowInBlock >= blockSize) {
+                if (nextBlock >= blockOrder.length) {
+                    return false;
+                }
+                startBlock();
+            }
+            int row = rowOrder == null ? rowInBlock : rowOrder[rowInBlock];
+            rowOffset = row * rowBytes;
+            currentRow = blockFirstRow + row;
+            return true;
+        }
+
+        /**
+         * @return The number of the current row in the file (its position in file order, starting at 0).
+         */
+        public long getRow() {
+            return currentRow;
+        }
+
+        /**
+         * Copies the features of the current row.
+         * @param destination An array with at least getFeatureCount() elements.
+         */
+        public void copyFeatures(double[] destination) {
+            for (int f = 0; f < numFeatures; f++) {
+                destination[f] = block.getDouble(rowOffset + f * Double.BYTES);
+            }
+        }
+
+        public int getLabel() {
+            return block.getInt(rowOffset + numFeatures * Double.BYTES);
+        }
+
+        // Switches to the prefetched block and starts prefetching the one after it.
+        private void startBlock() {
+            int blockNumber = blockOrder[nextBlock++];
+            block = prefetch.join();
+            prefetch = nextBlock < blockOrder.length ? prefetch(blockOrder[nextBlock]) : null;
+            blockFirstRow = (long) blockNumber * BLOCK_ROWS;
+            blockSize = (int) Math.min(BLOCK_ROWS, rowCount - blockFirstRow);
+            rowInBlock = 0;
+            if (rowOrder != null) {
+                for (int r = 0; r < blockSize; r++) {
+                    rowOrder[r] = r;
+                }
+                shuffleInPlace(rowOrder, blockSize);
+            }
+        }
+
+        // Maps a block and touches all of its pages on the ForkJoin pool.
+        private ForkJoinTask<MappedByteBuffer> prefetch(int blockNumber) {
+            long start = HEADER_BYTES + (long) blockNumber * BLOCK_ROWS * rowBytes;
+            long rows = Math.min(BLOCK_ROWS, rowCount - (long) blockNumber * BLOCK_ROWS);
+            return ForkJoinPool.commonPool().submit(() -> {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, start, rows * rowBytes);
+                mapped.load();
+                return mapped;
+            });
+        }
+
+        // Fisher-Yates shuffle of values[0, length).
+        private void shuffleInPlace(int[] values, int length) {
+            for (int i = length - 1; i > 0; i--) {
+                int j = shuffle.nextInt(i + 1);
+                int tmp = values[i];
+                values[i] = values[j];
+                values[j] = tmp;
+            }
+        }
+    }
+
+    /**
+     * Writes a row file one row at a time, so rows can be streamed in without holding them in memory. The file
+     * is written next to its final location and moved into place by close(), so a half-written file is never
+     * picked up.
+     *
+     * addRow() does not throw: the first write error is remembered, later rows are dropped, and close() throws it.
+     */
+    public static class Writer implements Closeable {
+        private static final int BUFFER_BYTES = 1 << 20;
+
+        private final Path file;
+        private final Path temp;
+        private final FileChannel channel;
+        private final int numFeatures;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        private long rows;
+        private IOException error;
+
+        /**
+         * @param file Where the finished file should end up.
+         * @param numFeatures The number of features per row.
+         */
+        public Writer(Path file, int numFeatures) throws IOException {
+            this.file = file;
+            this.temp = file.resolveSibling(file.getFileName() + ".tmp");
+            this.numFeatures = numFeatures;
+            this.channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            buffer.position(HEADER_BYTES); // the header is written by close(), once the row count is known
+        }
+
+        /**
+         * Appends one row.
+         * @param features The first numFeatures values are written.
+         * @param label The row's class label.
+         */
+        public void addRow(double[] features, int label) {
+            if (error != null) {
+                return;
+            }
+            if (buffer.remaining() < numFeatures * Double.BYTES + Integer.BYTES) {
+                flush();
+            }
+            for (int f = 0; f < numFeatures; f++) {
+                buffer.putDouble(features[f]);
+            }
+            buffer.putInt(label);
+            rows++;
+        }
+
+        public long getRowCount() {
+            return rows;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+                if (error == null) {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                    header.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(rows).putInt(numFeatures).flip();
+                    channel.write(header, 0);
+                }
+            } catch (IOException e) {
+                error = e;
+            } finally {
+                channel.close();
+            }
+            if (error != null) {
+                Files.deleteIfExists(temp);
+                throw error;
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private void flush() {
+            buffer.flip();
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                error = e;
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package data;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * One train/test split, stored only as two arrays of row numbers.
+ *
+ * The rows themselves are never copied: trainView()/testView() return views that look up the rows in the
+ * original data on demand.
+ */
+public class Split {
+
+    private final int[] trainIndices;
+    private final int[] testIndices;
+
+    public Split(int[] trainIndices, int[] testIndices) {
+        this.trainIndices = trainIndices;
+        this.testIndices = testIndices;
+    }
+
+    public int[] getTrainIndices() { return trainIndices; }
+    public int[] getTestIndices() { return testIndices; }
+
+    /**
+     * @return A view of the training rows of the dataset.
+     */
+    public Dataset trainView(Dataset data) {
+        return data.subset(trainIndices);
+    }
+
+    /**
+     * @return A view of the testing rows of the dataset.
+     */
+    public Dataset testView(Dataset data) {
+        return data.subset(testIndices);
+    }
+
+    /**
+     * @return A read-only view of the training rows of the list.
+     */
+    public List<DataPoint> trainView(List<DataPoint> data) {
+        return new IndexView(data, trainIndices);
+    }
+
+    /**
+     * @return A read-only view of the testing rows of the list.
+     */
+    public List<DataPoint> testView(List<DataPoint> data) {
+        return new IndexView(data, testIndices);
+    }
+
+    /**
+     * A read-only list that shows the elements of another list at the given positions.
+     */
+    private static class IndexView extends AbstractList<DataPoint> implements RandomAccess {
+        private final List<DataPoint> data;
+        private final int[] indices;
+
+        IndexView(List<DataPoint> data, int[] indices) {
+            this.data = data;
+            this.indices = indices;
+        }
+
+        @Override
+        public DataPoint get(int index) {
+            return data.get(indices[index]);
+        }
+
+        @Override
+        public int size() {
+            return indices.length;
+        }
+    }
+}
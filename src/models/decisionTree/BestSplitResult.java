@@ -1,11 +1,11 @@
 package models.decisionTree;
 
-import data.DataPoint;
-import java.util.List;
-
 /**
  * A simple data-holding class (a "struct" or "record") used to return multiple values
  * from the findBestSplit method. This is cleaner than returning a generic array or map.
+ *
+ * The rows themselves are not copied: findBestSplit has already partitioned the node's range of the
+ * tree's row array, so the two groups are the ranges [leftStart, leftEnd) and [rightStart, rightEnd).
  */
 public class BestSplitResult {
 
@@ -15,22 +15,28 @@ public class BestSplitResult {
     // The Information Gain score achieved by this split. Storing this is useful for debugging.
     private final double gain;
 
-    // The subset of data that matched the condition (the "yes" group).
-    private final List<DataPoint> leftData;
+    // Where the rows that matched the condition (the "yes" group) start in the row array.
+    private final int start;
+
+    // Where the "yes" group ends and the "no" group (the rows that did not match) starts.
+    private final int splitPoint;
 
-    // The subset of data that did not match the condition (the "no" group).
-    private final List<DataPoint> rightData;
+    // Where the "no" group ends.
+    private final int end;
 
-    public BestSplitResult(SplitCondition condition, double gain, List<DataPoint> leftData, List<DataPoint> rightData) {
+    public BestSplitResult(SplitCondition condition, double gain, int start, int splitPoint, int end) {
         this.condition = condition;
         this.gain = gain;
-        this.leftData = leftData;
-        this.rightData = rightData;
+        this.start = start;
+        this.splitPoint = splitPoint;
+        this.end = end;
     }
 
     // --- Standard "Getter" methods to access the stored data ---
     public SplitCondition getCondition() { return condition; }
     public double getGain() { return gain; }
-    public List<DataPoint> getLeftData() { return leftData; }
-    public List<DataPoint> getRightData() { return rightData; }
-}
\ No newline at end of file
+    public int getLeftStart() { return start; }
+    public int getLeftEnd() { return splitPoint; }
+    public int getRightStart() { return splitPoint; }
+    public int getRightEnd() { return end; }
+}
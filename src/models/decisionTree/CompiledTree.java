@@ -0,0 +1,15 @@
+package models.decisionTree;
+
+/**
+ * A trained tree turned into code by TreeCodeGenerator: every question is a compare-and-branch instruction
+ * with its feature index and threshold as constants.
+ */
+interface CompiledTree {
+
+    /**
+     * Predicts the class of a single feature vector.
+     * @param features The features, in the same order as the training data.
+     * @return The predicted class label.
+     */
+    int predict(double[] features);
+}
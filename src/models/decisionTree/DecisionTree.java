@@ -1,13 +1,14 @@
 package models.decisionTree;
 
 import data.DataPoint;
+import data.Dataset;
 
-import java.util.List;
 import java.util.ArrayList;
-//import java.util.HashMap;
-import java.util.HashSet;
-//import java.util.Map;
-import java.util.Set;
+import java.util.List;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * The main class that encapsulates the entire Decision Tree algorithm.
@@ -15,9 +16,75 @@ import java.util.Set;
  */
 public class DecisionTree {
 
-    // The 'root' is the very first node of the tree. It's the entry point for all predictions.
-    // It is null until the train() method is called.
-    private Node root;
+    /**
+     * How findBestSplit() looks for the best question.
+     */
+    public enum SplitSearch {
+        // Try every unique value of every feature in the node, on the raw values.
+        EXACT,
+        // Quantize every feature once into at most maxBins bins and search per-node class histograms of the
+        // bins. The same tree as EXACT for features with few enough values; an approximation for the others.
+        HISTOGRAM
+    }
+
+    // The class labels are 0, 1 and 2 (Low, Moderate and High stress).
+    private static final int NUM_CLASSES = 3;
+    // Histograms count the rows of each class, plus the rows with an unknown label (see groupOf()).
+    private static final int GROUPS = NUM_CLASSES + 1;
+
+    // With more than one thread, a node with at least this many rows builds its two subtrees as separate tasks.
+    // Smaller subtrees are built sequentially, so the task overhead stays small next to the work.
+    private static final int FORK_MIN_ROWS = 4096;
+    // With more than one thread, a node with at least this many rows searches its features as separate tasks.
+    private static final int PARALLEL_FEATURES_MIN_ROWS = 16384;
+
+    // The number of rows predictBatch() hands to one task.
+    private static final int PREDICTION_TILE = 16384;
+    // The number of rows a prediction task copies out of the dataset at a time (see Dataset.copyRows()).
+    private static final int PREDICTION_BLOCK = 256;
+
+    // The sort buffer of a feature searched as a task of its own (see findBestSplit()).
+    private static final ThreadLocal<double[]> FEATURE_SCRATCH = ThreadLocal.withInitial(() -> new double[0]);
+    // The feature vector of a dataset row handed to the generated code (see predict(Dataset, int)).
+    private static final ThreadLocal<double[]> ROW_SCRATCH = ThreadLocal.withInitial(() -> new double[0]);
+
+    // The trained tree, compiled into flat arrays for prediction (see FlatTree). Its root is the entry point for
+    // all predictions. It is null until the train() method is called.
+    private FlatTree tree;
+    // The trained tree as a generated class (see setGenerateCode()), or null to predict with 'tree'.
+    private CompiledTree compiled;
+
+    // The data the tree is currently being built from. Only set while train() runs.
+    private Dataset data;
+    // The backing arrays of 'data' when it is a plain heap dataset (see Dataset.getColumn()): columns[f][row] is
+    // feature f of a row and labels[row] its class. null for a view or off-heap data, which is read through
+    // 'data' instead. Only set while train() runs.
+    private double[][] columns;
+    private int[] labels;
+    // The quantized features of 'data' in HISTOGRAM mode. Only set while train() runs.
+    private FeatureBins bins;
+
+    // The row numbers of the training data, reordered in place while the tree is built: the rows of every node are the
+    // range rows[start, end), and splitting a node partitions its range into the ranges of its children.
+    // Only set while train() runs.
+    private int[] rows;
+    // Scratch space of findBestSplit(): a node sorts its values in sortedValues[start, end), next to its rows.
+    private double[] sortedValues;
+    // Scratch space of partition(), used the same way.
+    private int[] partitionScratch;
+
+    // True while train() builds the tree on a pool of more than one thread.
+    private boolean parallel;
+
+    private SplitSearch splitSearch = SplitSearch.EXACT;
+    private int maxBins = FeatureBins.MAX_BINS;
+    private int threads = 1;
+    private boolean generateCode;
+    private int minSamplesLeaf = 1;
+    private double minImpurityDecrease = 0.0;
+    private double ccpAlpha = 0.0;
+    // The number of nodes the last train() call grew, before cost-complexity pruning.
+    private int grownNodeCount;
 
     // A hyperparameter to control the maximum depth of the tree.
     // This is a crucial setting to prevent the tree from becoming too complex and "overfitting" the data.
@@ -37,52 +104,245 @@ public class DecisionTree {
         this.minSamplesSplit = minSamplesSplit;
     }
 
+    /**
+     * Chooses how the best split of each node is found. EXACT (the default) tries every unique value of every
+     * feature. HISTOGRAM quantizes each feature once into at most maxBins bins (one byte per value) and finds
+     * the split from per-node class counts per bin, deriving the larger child's counts from its parent and its
+     * sibling instead of scanning its rows. For features with at most maxBins values (all features DataLoader
+     * produces) the tree is exactly the one EXACT builds.
+     * @param splitSearch The split search used by the next train() call.
+     */
+    public void setSplitSearch(SplitSearch splitSearch) {
+        this.splitSearch = splitSearch;
+    }
+
+    /**
+     * Sets the largest number of bins per feature in HISTOGRAM mode (a feature with NaN values uses one of
+     * them for NaN).
+     * @param maxBins Between 2 and 256. The default is 256.
+     */
+    public void setMaxBins(int maxBins) {
+        if (maxBins < 2 || maxBins > FeatureBins.MAX_BINS) {
+            throw new IllegalArgumentException("maxBins must be between 2 and " + FeatureBins.MAX_BINS + ".");
+        }
+        this.maxBins = maxBins;
+    }
+
+    /**
+     * Sets the number of threads train() builds the tree with. With more than one, the two subtrees of every
+     * large node are built in parallel, and the features of the largest nodes are searched in parallel. Every
+     * decision is made exactly as in the sequential build, so the tree is the same for any thread count.
+     * @param threads The number of worker threads (default 1: build sequentially, on the calling thread).
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Training needs at least one thread.");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Sets the smallest number of training rows a leaf may have: a split that would leave fewer rows on either
+     * side is not considered. Checked in the split search, so a node with fewer than twice as many rows is not
+     * searched at all.
+     * @param minSamplesLeaf At least 1 (the default, which allows every split).
+     */
+    public void setMinSamplesLeaf(int minSamplesLeaf) {
+        if (minSamplesLeaf < 1) {
+            throw new IllegalArgumentException("A leaf needs at least one training row.");
+        }
+        this.minSamplesLeaf = minSamplesLeaf;
+    }
+
+    /**
+     * Sets the smallest weighted impurity decrease a split must achieve: a node of n out of N training rows is
+     * only split if n / N * (its Gini - the weighted Gini of its children) is at least this value. No split can
+     * decrease the impurity by more than the node's own weighted Gini, so nodes below that are not searched.
+     * @param minImpurityDecrease At least 0 (the default, which allows every split with a positive gain).
+     */
+    public void setMinImpurityDecrease(double minImpurityDecrease) {
+        if (!(minImpurityDecrease >= 0)) {
+            throw new IllegalArgumentException("minImpurityDecrease must not be negative.");
+        }
+        this.minImpurityDecrease = minImpurityDecrease;
+    }
+
+    /**
+     * Sets the complexity parameter of minimal cost-complexity pruning. After growing the tree, train() replaces
+     * it with its smallest subtree T (with the same root) that minimizes R(T) + alpha * |leaves of T|, where R(T)
+     * is the sum over the leaves of n / N * Gini of their training rows. Every split is then worth at least alpha
+     * of impurity decrease per leaf it adds. getGrownNodeCount() and getNodeCount() report the size before and
+     * after pruning.
+     * @param ccpAlpha At least 0 (the default: no pruning).
+     */
+    public void setCcpAlpha(double ccpAlpha) {
+        if (!(ccpAlpha >= 0)) {
+            throw new IllegalArgumentException("ccpAlpha must not be negative.");
+        }
+        this.ccpAlpha = ccpAlpha;
+    }
+
+    /**
+     * Turns the trained tree into a class of its own (see TreeCodeGenerator): every question becomes a
+     * compare-and-branch instruction with its feature and threshold as constants, which the JIT compiles to
+     * plain machine code. The predictions are exactly those of the interpreted tree. If the JVM can not define
+     * the class (or the tree is too large for one), the interpreted tree is kept; see isCodeGenerated().
+     * Applies to the next train() call, and right away to a tree that is already trained.
+     * @param generateCode True to predict with generated code, false (the default) to walk the flat tree.
+     */
+    public void setGenerateCode(boolean generateCode) {
+        this.generateCode = generateCode;
+        if (tree != null) {
+            this.compiled = generateCode ? TreeCodeGenerator.generate(tree) : null;
+        }
+    }
+
+    /**
+     * setGenerateCode(true) does not guarantee generated code: if the tree is too large for one class, or the JVM
+     * rejects the class, the tree falls back to the interpreted flat tree (with the reason printed to
+     * System.err) and this returns false. The predictions are the same either way.
+     * @return True if predictions run generated code, false if they walk the flat tree.
+     */
+    public boolean isCodeGenerated() {
+        return compiled != null;
+    }
+
     /**
      * The main public method to start the training process.
      * It takes the training data and begins the recursive tree-building process.
      * @param trainingData A List of DataPoint objects to build the tree from.
      */
     public void train(List<DataPoint> trainingData) {
-        // The entire, fully-assembled tree structure is returned by buildTree and stored in our 'root' field.
-        this.root = buildTree(trainingData, 0);
+        train(Dataset.fromDataPoints(trainingData));
+    }
+
+    /**
+     * Builds the tree from a columnar Dataset. Every group of students is a range of one shared int[] of row
+     * numbers, which is partitioned in place (like quicksort) at every split, and the split search scans the
+     * feature columns directly: as plain double[]s for a heap dataset (see Dataset.getColumn()), through
+     * getFeature() for a view or off-heap data, which is never copied. Apart from the tree itself, training
+     * allocates about two ints and one double per row (or two ints per row and one byte per value in HISTOGRAM
+     * mode), however deep the tree grows.
+     * @param trainingData The dataset (or view) to build the tree from.
+     */
+    public void train(Dataset trainingData) {
+        this.data = trainingData;
+        this.labels = trainingData.getLabels();
+        double[][] heapColumns = new double[trainingData.getFeatureCount()][];
+        for (int f = 0; heapColumns != null && f < heapColumns.length; f++) {
+            heapColumns[f] = trainingData.getColumn(f);
+            if (heapColumns[f] == null) {
+                heapColumns = null;
+            }
+        }
+        this.columns = heapColumns;
+        this.rows = new int[trainingData.size()];
+        this.partitionScratch = new int[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i;
+        }
+        int[] histogram = null;
+        if (splitSearch == SplitSearch.HISTOGRAM) {
+            this.bins = new FeatureBins(trainingData, maxBins);
+            histogram = buildHistogram(0, rows.length);
+        } else {
+            this.sortedValues = new double[rows.length];
+        }
+        // The entire, fully-assembled tree structure is returned by buildTree, then compiled into flat arrays
+        // and stored in our 'tree' field (the Node objects are only needed while building).
+        Node root;
+        if (threads > 1) {
+            // A pool of exactly 'threads' workers, so the thread count does not depend on the common pool.
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            this.parallel = true;
+            try {
+                root = pool.invoke(new BuildTask(0, rows.length, 0, histogram));
+            } finally {
+                this.parallel = false;
+                pool.shutdown();
+            }
+        } else {
+            root = buildTree(0, rows.length, 0, histogram);
+        }
+        // The rows of every node are still in its range of 'rows', so the pruning can count them again.
+        PrunedSubtree pruned = prune(root, 0, rows.length);
+        this.grownNodeCount = pruned.grownNodes;
+        this.tree = new FlatTree(pruned.node);
+        this.compiled = generateCode ? TreeCodeGenerator.generate(tree) : null;
+        this.data = null;
+        this.columns = null;
+        this.labels = null;
+        this.bins = null;
+        this.rows = null;
+        this.sortedValues = null;
+        this.partitionScratch = null;
     }
 
     /**
      * The main recursive method that builds the tree.
      * This will be implemented in the next step. It's the core of the "assembly line."
+     * @param start The first index in 'rows' of the rows of the training data that reached this node.
+     * @param end The index after the last one.
+     * @param histogram In HISTOGRAM mode, the class counts per bin of these rows (reused for a child); otherwise null.
      */
-    private Node buildTree(List<DataPoint> data, int currentDepth) {
+    private Node buildTree(int start, int end, int currentDepth, int[] histogram) {
         // === BASE CASES: These are the stopping conditions for the recursion ===
 
         // Condition 1: Have we reached the maximum allowed depth?
         // Condition 2: Is the group of data too small to be worth splitting?
         // Condition 3: Is the group of data already perfectly pure (all the same class)?
-        if (currentDepth >= maxDepth || data.size() < minSamplesSplit || isPure(data)) {
+        if (currentDepth >= maxDepth || end - start < minSamplesSplit || isPure(start, end)) {
             // If any stopping condition is met, we create a Leaf Node.
             // The prediction for this leaf is the most common class in the current data.
-            int leafPrediction = majorityVote(data);
+            int leafPrediction = majorityVote(start, end);
             return new Node(leafPrediction);
         }
 
         // === RECURSIVE STEP: Find the best split and continue building ===
 
-        // find the best possible question for the current dataset.
-        BestSplitResult bestSplit = findBestSplit(data);
+        // find the best possible question for the current dataset (this also moves the rows of each
+        // answer to its own part of the node's range).
+        BestSplitResult bestSplit = histogram == null ? findBestSplit(start, end)
+                : findBestHistogramSplit(start, end, histogram);
 
         // Condition 4: Another stopping condition. If findBestSplit couldn't find a split that
         // provided any information gain (gain=0), it's not worth splitting further.
         if (bestSplit.getGain() <= 0) {
-            int leafPrediction = majorityVote(data);
+            int leafPrediction = majorityVote(start, end);
             return new Node(leafPrediction);
         }
 
+        // In HISTOGRAM mode, count only the smaller child's rows; the larger child's histogram is what is
+        // left of the parent's (computed in place, the parent no longer needs it).
+        int[] leftHistogram = null;
+        int[] rightHistogram = null;
+        if (histogram != null && currentDepth + 1 < maxDepth) {
+            int leftSize = bestSplit.getLeftEnd() - bestSplit.getLeftStart();
+            int rightSize = bestSplit.getRightEnd() - bestSplit.getRightStart();
+            if (leftSize <= rightSize) {
+                leftHistogram = buildHistogram(bestSplit.getLeftStart(), bestSplit.getLeftEnd());
+                rightHistogram = subtract(histogram, leftHistogram);
+            } else {
+                rightHistogram = buildHistogram(bestSplit.getRightStart(), bestSplit.getRightEnd());
+                leftHistogram = subtract(histogram, rightHistogram);
+            }
+        }
+
+        // The two subtrees work on disjoint ranges of the row array (and on their own histograms), so in a
+        // parallel build the "yes" branch can be built by another thread while this one builds the "no" branch.
+        if (parallel && end - start >= FORK_MIN_ROWS) {
+            BuildTask leftTask = new BuildTask(bestSplit.getLeftStart(), bestSplit.getLeftEnd(), currentDepth + 1, leftHistogram);
+            leftTask.fork();
+            Node rightChild = buildTree(bestSplit.getRightStart(), bestSplit.getRightEnd(), currentDepth + 1, rightHistogram);
+            return new Node(bestSplit.getCondition(), leftTask.join(), rightChild);
+        }
 
         // Recursively call this function to build the "yes" (left) branch.
         // pass the left subset of data and increment the depth.
-        Node leftChild = buildTree(bestSplit.getLeftData(), currentDepth + 1);
+        Node leftChild = buildTree(bestSplit.getLeftStart(), bestSplit.getLeftEnd(), currentDepth + 1, leftHistogram);
 
         // Recursively call this function to build the "no" (right) branch.
-        Node rightChild = buildTree(bestSplit.getRightData(), currentDepth + 1);
+        Node rightChild = buildTree(bestSplit.getRightStart(), bestSplit.getRightEnd(), currentDepth + 1, rightHistogram);
 
         // Create a new Decision Node that holds the best question and the two sub-trees  just built.
         // This node is then returned up the chain to the function that called it.
@@ -91,41 +351,98 @@ public class DecisionTree {
 
     /**
      * The main public method to make a prediction on a new, unseen data point.
-     * It simply starts the recursive traversal from the root of the tree.
+     * It walks down the compiled tree from its root, one question per level.
      * @param dataPoint The student's data to classify.
      * @return The predicted class label (0, 1, or 2).
      */
     public int predict(DataPoint dataPoint) {
-        // Start the recursive walk down the tree, beginning at the root.
-        return traverseTree(dataPoint.getFeatures(), this.root);
+        return predict(dataPoint.getFeatures());
     }
 
     /**
-     * The private recursive method that walks down the tree to find a prediction.
-     * @param features The features of the student we are classifying.
-     * @param node The current node we are looking at.
-     * @return The prediction from the leaf node that is eventually reached.
+     * Predicts the class of a single feature vector.
+     * @param features The features, in the same order as the training data.
+     * @return The predicted class label.
      */
-    private int traverseTree(double[] features, Node node) {
-        // --- BASE CASE ---
-        // If the current node is a leaf, we have reached our destination.
-        // Return the prediction stored in this leaf.
-        if (node.isLeaf()) {
-            return node.getPrediction();
+    public int predict(double[] features) {
+        CompiledTree compiled = this.compiled;
+        return compiled != null ? compiled.predict(features) : tree.predict(features);
+    }
+
+    /**
+     * Predicts the class of one row of a dataset, reading the features straight from its columns.
+     * @param data The dataset holding the row.
+     * @param row The row number within that dataset.
+     * @return The predicted class label.
+     */
+    public int predict(Dataset data, int row) {
+        CompiledTree compiled = this.compiled;
+        if (compiled == null) {
+            return tree.predict(data, row);
+        }
+        double[] features = ROW_SCRATCH.get();
+        if (features.length != data.getFeatureCount()) {
+            features = new double[data.getFeatureCount()];
+            ROW_SCRATCH.set(features);
         }
+        data.copyRow(row, features);
+        return compiled.predict(features);
+    }
 
-        // --- RECURSIVE STEP ---
-        // If it's not a leaf, it's a decision node. We must ask its question.
-        // Using the node's SplitCondition to check the student's features.
-        if (node.getSplitCondition().matches(features)) {
-            // If the condition is true (it matches), we continue traversing down the LEFT child.
-            return traverseTree(features, node.getLeftChild());
-        } else {
-            // If the condition is false, we continue traversing down the RIGHT child.
-            return traverseTree(features, node.getRightChild());
+    /**
+     * Predicts the classes of all rows of a dataset (or view), using every core. Gives exactly the same
+     * predictions as calling predict() on each row.
+     * @param data The rows to classify.
+     * @return The predicted class label of every row, in dataset order.
+     */
+    public int[] predictBatch(Dataset data) {
+        int[] predictions = new int[data.size()];
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int from = 0; from < data.size(); from += PREDICTION_TILE) {
+            final int start = from;
+            final int end = Math.min(from + PREDICTION_TILE, data.size());
+            tasks.add(ForkJoinTask.adapt(() -> predictRange(data, start, end, predictions)));
+        }
+        ForkJoinTask.invokeAll(tasks);
+        return predictions;
+    }
+
+    // Predicts the rows [from, to) of a dataset into predictions[from, to), with the generated code if there is.
+    // The rows are copied out a block at a time, so the tree walks read a plain double[].
+    private void predictRange(Dataset data, int from, int to, int[] predictions) {
+        CompiledTree compiled = this.compiled;
+        int numFeatures = data.getFeatureCount();
+        double[] block = new double[PREDICTION_BLOCK * numFeatures];
+        double[] features = new double[numFeatures];
+        for (int blockStart = from; blockStart < to; blockStart += PREDICTION_BLOCK) {
+            int blockEnd = Math.min(blockStart + PREDICTION_BLOCK, to);
+            data.copyRows(blockStart, blockEnd, block);
+            for (int row = blockStart, offset = 0; row < blockEnd; row++, offset += numFeatures) {
+                if (compiled == null) {
+                    predictions[row] = tree.predict(block, offset);
+                } else {
+                    System.arraycopy(block, offset, features, 0, numFeatures);
+                    predictions[row] = compiled.predict(features);
+                }
+            }
         }
     }
 
+    /**
+     * @return The number of nodes of the trained tree (questions and leaves).
+     */
+    public int getNodeCount() {
+        return tree.nodeCount();
+    }
+
+    /**
+     * @return The number of nodes the tree had before cost-complexity pruning (see setCcpAlpha()). The same as
+     *         getNodeCount() when the tree was not pruned.
+     */
+    public int getGrownNodeCount() {
+        return grownNodeCount;
+    }
+
 
     // =================================================================
     // TOOLBOX OF HELPER METHODS
@@ -133,31 +450,41 @@ public class DecisionTree {
 
     /**
      * TOOL #1: The "Purity Scanner" (Array-based implementation).
-     * Calculates the Gini Impurity for a given list of data points.
-     * @param data A list of DataPoints.
+     * Calculates the Gini Impurity for a given group of rows.
+     * @param start The first index in 'rows' of the group.
+     * @param end The index after the last one.
      * @return A double between 0 (perfectly pure) and a max value.
      */
-    private double calculateGini(List<DataPoint> data) {
-        if (data.isEmpty()) {
+    private double calculateGini(int start, int end) {
+        if (end == start) {
             return 0.0;
         }
 
         // Creating an array to hold the counts. Index 0 for class 0, Index 1 for class 1, etc.
         // assume a maximum of 3 classes (0, 1, 2), so an array of size 3 is sufficient.
-        int[] classCounts = new int[3];
+        int[] classCounts = new int[NUM_CLASSES];
 
         // Step 1: Count the occurrences of each class label.
-        for (DataPoint dp : data) {
-            int label = dp.getLabel();
+        for (int i = start; i < end; i++) {
+            int label = labelOf(rows[i]);
             if (label >= 0 && label < classCounts.length) {
                 classCounts[label]++; // Increment the count at the index corresponding to the label.
             }
         }
+        return giniFromCounts(classCounts, end - start);
+    }
 
+    /**
+     * Steps 2-4 of the Gini calculation, from class counts that are already known.
+     * @param classCounts The number of rows of each class (index = label).
+     * @param totalSamples The number of rows in the group, including rows with a label outside the counts.
+     * @return The Gini impurity of the group.
+     */
+    private static double giniFromCounts(int[] classCounts, int totalSamples) {
         // Step 2 & 3: Calculate the sum of squared proportions.
         double sumOfSquares = 0.0;
-        int totalSamples = data.size();
-        for (int count : classCounts) {
+        for (int i = 0; i < NUM_CLASSES; i++) {
+            int count = classCounts[i];
             if (count > 0) { // Only calculate for classes that are actually present.
                 double proportion = (double) count / totalSamples;
                 sumOfSquares += proportion * proportion;
@@ -169,19 +496,20 @@ public class DecisionTree {
     }
     /**
      * TOOL #2: The "Final Answer Determiner" (Array-based implementation).
-     * Finds the most frequent class label in a list of data.
-     * @param data A list of DataPoints.
+     * Finds the most frequent class label in a group of rows.
+     * @param start The first index in 'rows' of the group.
+     * @param end The index after the last one.
      * @return The integer label of the most frequent class.
      */
-    private int majorityVote(List<DataPoint> data) {
-        if (data.isEmpty()) {
-            return -1; // Return an invalid label if the list is empty.
+    private int majorityVote(int start, int end) {
+        if (end == start) {
+            return -1; // Return an invalid label if the group is empty.
         }
 
         // Use an array to store the counts of each label.
-        int[] classCounts = new int[3];
-        for (DataPoint dp : data) {
-            int label = dp.getLabel();
+        int[] classCounts = new int[NUM_CLASSES];
+        for (int i = start; i < end; i++) {
+            int label = labelOf(rows[i]);
             if (label >= 0 && label < classCounts.length) {
                 classCounts[label]++;
             }
@@ -202,81 +530,426 @@ public class DecisionTree {
 
     /**
      * TOOL #3: The "Master Machine".
-     * This is the core of the algorithm. It iterates through every possible question (every feature and every unique value)
+     * This is the core of the algorithm. It tries every possible question (every feature and every unique value)
      * to find the one that results in the highest Information Gain (the biggest reduction in Gini impurity).
-     * @param data The current list of data points to be split.
-     * @return A BestSplitResult object containing the best question and the resulting data subgroups.
+     *
+     * Instead of partitioning the rows again for every candidate value, each feature is swept once in sorted
+     * order: moving the threshold up to the next unique value moves exactly the rows with that value from the
+     * right group to the left one, so the class counts of both groups (and with them their Gini) are updated
+     * incrementally. The values are sorted per class (plain double sorts, no boxing) and the sorted runs are
+     * merged during the sweep, which yields the class counts directly. A node costs O(features * n log n).
+     *
+     * When several values of one feature give exactly the same gain, the smallest one wins; between features,
+     * the first feature wins. The rows of the node are then partitioned in place for the winning question.
+     * In a parallel build, the features of a large node are swept as separate tasks and their best splits are
+     * compared afterwards in feature order, which picks the same winner.
+     * @param start The first index in 'rows' of the rows to be split.
+     * @param end The index after the last one.
+     * @return A BestSplitResult object containing the best question and the ranges of the resulting row groups.
      */
-    private BestSplitResult findBestSplit(List<DataPoint> data) {
-        double bestGain = 0.0;
-        SplitCondition bestCondition = null;
-        List<DataPoint> bestLeftData = null;
-        List<DataPoint> bestRightData = null;
-
+    private BestSplitResult findBestSplit(int start, int end) {
         // First, calculate the impurity of the current group before any splits.
-        double parentGini = calculateGini(data);
-        if (data.isEmpty()) {
-            return new BestSplitResult(null, 0, null, null);
+        double parentGini = calculateGini(start, end);
+        int size = end - start;
+        // No split can leave minSamplesLeaf rows on both sides, or gain more than the node's whole impurity.
+        if (size < 2 * minSamplesLeaf || parentGini < minGain(size)) {
+            return new BestSplitResult(null, 0, start, end, end);
+        }
+        int numFeatures = data.getFeatureCount();
+
+        // Group the rows by class. The last group holds rows whose label is not a known class: they count
+        // towards the size of a group but not towards its Gini sum, just like in calculateGini().
+        // The sorted values of group g take up positions [groupStart[g], groupStart[g + 1]) of the sort buffer.
+        int[] groupStart = new int[GROUPS + 1];
+        for (int i = start; i < end; i++) {
+            groupStart[groupOf(labelOf(rows[i])) + 1]++;
+        }
+        for (int g = 0; g < GROUPS; g++) {
+            groupStart[g + 1] += groupStart[g];
         }
-        int numFeatures = data.get(0).getFeatureCount();
 
         // Loop 1: Go through each feature (e.g., Age, CGPA, etc.).
+        FeatureSplit[] featureSplits = new FeatureSplit[numFeatures];
+        if (parallel && size >= PARALLEL_FEATURES_MIN_ROWS) {
+            // Each task sorts in its own thread's buffer: a sweep never waits for another task, so no other
+            // task can run on the same thread (and reuse the buffer) in the middle of it.
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+                int feature = featureIndex;
+                tasks.add(ForkJoinTask.adapt(() -> {
+                    double[] buffer = FEATURE_SCRATCH.get();
+                    if (buffer.length < size) {
+                        buffer = new double[size];
+                        FEATURE_SCRATCH.set(buffer);
+                    }
+                    featureSplits[feature] = sweepFeature(start, end, feature, groupStart, parentGini, buffer, 0);
+                }));
+            }
+            ForkJoinTask.invokeAll(tasks);
+        } else {
+            // The node's own slice of the shared sort buffer.
+            for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+                featureSplits[featureIndex] = sweepFeature(start, end, featureIndex, groupStart, parentGini,
+                        sortedValues, start);
+            }
+        }
+
+        // If a feature's best split is the best one we've seen so far, save it.
+        double bestGain = 0.0;
+        int bestFeature = -1;
+        double bestValue = 0.0;
         for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
-            // Find all unique values for this feature to use as potential split points.
-            Set<Double> uniqueValues = new HashSet<>();
-            for (DataPoint dp : data) {
-                uniqueValues.add(dp.getFeature(featureIndex));
+            if (featureSplits[featureIndex].gain > bestGain) {
+                bestGain = featureSplits[featureIndex].gain;
+                bestFeature = featureIndex;
+                bestValue = featureSplits[featureIndex].value;
+            }
+        }
+        if (bestFeature < 0 || bestGain < minGain(size)) {
+            return new BestSplitResult(null, 0, start, end, end);
+        }
+
+        // Partition the rows once, for the winning question only ("feature <= value" goes left).
+        int splitPoint = partition(start, end, bestFeature, bestValue);
+        // Return a "tote box" containing all the details of the best split found.
+        return new BestSplitResult(new SplitCondition(bestFeature, bestValue), bestGain, start, splitPoint, end);
+    }
+
+    /**
+     * Finds the best value to split one feature of a node on (the sorted sweep of findBestSplit()).
+     * @param groupStart Where the values of each class group start, relative to 'offset'.
+     * @param buffer The sort buffer; positions [offset, offset + end - start) are used.
+     * @return The feature's best gain (0 if no split improves on the parent) and the value that achieves it.
+     */
+    private FeatureSplit sweepFeature(int start, int end, int featureIndex, int[] groupStart, double parentGini,
+                                      double[] buffer, int offset) {
+        int size = end - start;
+        int[] fill = new int[GROUPS];
+        int[] cursor = new int[GROUPS];
+        int[] groupEnd = new int[GROUPS];
+        int[] leftCounts = new int[GROUPS];
+        int[] rightCounts = new int[GROUPS];
+        for (int g = 0; g < GROUPS; g++) {
+            fill[g] = offset + groupStart[g];
+            groupEnd[g] = offset + groupStart[g + 1];
+        }
+        if (columns != null) {
+            double[] column = columns[featureIndex];
+            for (int i = start; i < end; i++) {
+                int row = rows[i];
+                buffer[fill[groupOf(labels[row])]++] = column[row];
+            }
+        } else {
+            for (int i = start; i < end; i++) {
+                int row = rows[i];
+                buffer[fill[groupOf(data.getLabel(row))]++] = data.getFeature(row, featureIndex);
             }
+        }
+        for (int g = 0; g < GROUPS; g++) {
+            // NaN sorts last. A NaN row never matches "<=", so it always stays on the right.
+            cursor[g] = offset + groupStart[g];
+            Arrays.sort(buffer, cursor[g], groupEnd[g]);
+            rightCounts[g] = groupEnd[g] - cursor[g];
+        }
 
-            // Loop 2: Go through each unique value to create a question.
-            for (double value : uniqueValues) {
-                SplitCondition condition = new SplitCondition(featureIndex, value);
-
-                // Partition the data based on the current question.
-                List<DataPoint> leftData = new ArrayList<>();
-                List<DataPoint> rightData = new ArrayList<>();
-                for (DataPoint dp : data) {
-                    if (condition.matches(dp.getFeatures())) {
-                        leftData.add(dp);
-                    } else {
-                        rightData.add(dp);
+        FeatureSplit best = new FeatureSplit();
+        // Loop 2: Go through each unique value in increasing order, moving its rows to the left group.
+        int leftCount = 0;
+        while (true) {
+            double value = Double.NaN;
+            for (int g = 0; g < GROUPS; g++) {
+                if (cursor[g] < groupEnd[g]) {
+                    double candidate = buffer[cursor[g]];
+                    if (candidate < value || Double.isNaN(value)) {
+                        value = candidate;
                     }
                 }
+            }
+            if (Double.isNaN(value)) {
+                break; // only NaN (or nothing) is left
+            }
+            for (int g = 0; g < GROUPS; g++) {
+                int moved = 0;
+                while (cursor[g] < groupEnd[g] && buffer[cursor[g]] == value) {
+                    cursor[g]++;
+                    moved++;
+                }
+                leftCounts[g] += moved;
+                rightCounts[g] -= moved;
+                leftCount += moved;
+            }
+
+            // Don't consider splits that don't actually divide the data (or leave a side below minSamplesLeaf).
+            // The right group only shrinks from here on.
+            int rightCount = size - leftCount;
+            if (rightCount < minSamplesLeaf) {
+                break;
+            }
+            if (leftCount < minSamplesLeaf) {
+                continue;
+            }
+
+            // Calculate the weighted average impurity of the two new groups.
+            double pLeft = (double) leftCount / size;
+            double weightedGini = pLeft * giniFromCounts(leftCounts, leftCount)
+                    + (1.0 - pLeft) * giniFromCounts(rightCounts, rightCount);
+
+            // Information Gain is the reduction in impurity.
+            double informationGain = parentGini - weightedGini;
+            if (informationGain > best.gain) {
+                best.gain = informationGain;
+                best.value = value;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * TOOL #4: The histogram version of the "Master Machine".
+     * Finds the best split from the class counts per bin of the node: sweeping the bins of a feature in order
+     * moves each bin's counts from the right group to the left one, exactly like findBestSplit() moves the rows
+     * of each unique value. The question asked is "feature <= largest training value in the bin".
+     * @param start The first index in 'rows' of the rows to be split.
+     * @param end The index after the last one.
+     * @param histogram The class counts per bin of these rows (see buildHistogram()).
+     * @return A BestSplitResult object containing the best question and the ranges of the resulting row groups.
+     */
+    private BestSplitResult findBestHistogramSplit(int start, int end, int[] histogram) {
+        double bestGain = 0.0;
+        int bestFeature = -1;
+        int bestBin = -1;
+
+        double parentGini = calculateGini(start, end);
+        int size = end - start;
+        if (size < 2 * minSamplesLeaf || parentGini < minGain(size)) {
+            return new BestSplitResult(null, 0, start, end, end);
+        }
+        int[] leftCounts = new int[GROUPS];
+        int[] rightCounts = new int[GROUPS];
+        int[] nodeCounts = new int[GROUPS];
+        for (int i = start; i < end; i++) {
+            nodeCounts[groupOf(labelOf(rows[i]))]++;
+        }
 
-                // Don't consider splits that don't actually divide the data.
-                if (leftData.isEmpty() || rightData.isEmpty()) {
+        for (int featureIndex = 0; featureIndex < data.getFeatureCount(); featureIndex++) {
+            Arrays.fill(leftCounts, 0);
+            System.arraycopy(nodeCounts, 0, rightCounts, 0, GROUPS);
+            int leftCount = 0;
+            int first = bins.binStart[featureIndex];
+            for (int bin = 0; bin < bins.valueBinCount(featureIndex); bin++) {
+                int offset = (first + bin) * GROUPS;
+                int moved = 0;
+                for (int g = 0; g < GROUPS; g++) {
+                    int count = histogram[offset + g];
+                    leftCounts[g] += count;
+                    rightCounts[g] -= count;
+                    moved += count;
+                }
+                // Like findBestSplit(), only try the values that occur in the node.
+                if (moved == 0) {
+                    continue;
+                }
+                leftCount += moved;
+                int rightCount = size - leftCount;
+                if (rightCount < minSamplesLeaf) {
+                    break;
+                }
+                if (leftCount < minSamplesLeaf) {
                     continue;
                 }
 
-                // Calculate the weighted average impurity of the two new groups.
-                double pLeft = (double) leftData.size() / data.size();
-                double weightedGini = pLeft * calculateGini(leftData) + (1.0 - pLeft) * calculateGini(rightData);
-
-                // Information Gain is the reduction in impurity.
+                double pLeft = (double) leftCount / size;
+                double weightedGini = pLeft * giniFromCounts(leftCounts, leftCount)
+                        + (1.0 - pLeft) * giniFromCounts(rightCounts, rightCount);
                 double informationGain = parentGini - weightedGini;
-
-                // If this split is the best one we've seen so far, save it.
                 if (informationGain > bestGain) {
                     bestGain = informationGain;
-                    bestCondition = condition;
-                    bestLeftData = leftData;
-                    bestRightData = rightData;
+                    bestFeature = featureIndex;
+                    bestBin = bin;
                 }
             }
         }
-        // Return a "tote box" containing all the details of the best split found.
-        return new BestSplitResult(bestCondition, bestGain, bestLeftData, bestRightData);
+        if (bestFeature < 0 || bestGain < minGain(size)) {
+            return new BestSplitResult(null, 0, start, end, end);
+        }
+
+        // For the training rows, "value <= upper bound of bestBin" is the same test as "bin <= bestBin".
+        double threshold = bins.upperBounds[bestFeature][bestBin];
+        int splitPoint = partition(start, end, bestFeature, threshold);
+        return new BestSplitResult(new SplitCondition(bestFeature, threshold), bestGain, start, splitPoint, end);
     }
-    private boolean isPure(List<DataPoint> data) {
-        if (data.size() <= 1) {
+
+    /**
+     * Reorders rows[start, end) so that the rows whose feature is at most the value come first. The order of
+     * the rows within each group is kept (so the columns are still read in increasing row order); the rows that
+     * do not match wait in partitionScratch[start, end) meanwhile.
+     * @return The index of the first row that does not match, i.e. the end of the "yes" group.
+     */
+    private int partition(int start, int end, int featureIndex, double value) {
+        int left = start;
+        int right = start;
+        if (columns != null) {
+            double[] column = columns[featureIndex];
+            for (int i = start; i < end; i++) {
+                int row = rows[i];
+                if (column[row] <= value) {
+                    rows[left++] = row;
+                } else {
+                    partitionScratch[right++] = row;
+                }
+            }
+        } else {
+            for (int i = start; i < end; i++) {
+                int row = rows[i];
+                if (data.getFeature(row, featureIndex) <= value) {
+                    rows[left++] = row;
+                } else {
+                    partitionScratch[right++] = row;
+                }
+            }
+        }
+        System.arraycopy(partitionScratch, start, rows, left, right - start);
+        return left;
+    }
+
+    /**
+     * Counts the rows of each class in every bin of every feature.
+     * @param start The first index in 'rows' of the rows to count.
+     * @param end The index after the last one.
+     * @return histogram[(bins.binStart[f] + b) * GROUPS + g]: the number of rows in group g with bin b of feature f.
+     */
+    private int[] buildHistogram(int start, int end) {
+        int numFeatures = data.getFeatureCount();
+        int[] histogram = new int[bins.binStart[numFeatures] * GROUPS];
+        if (parallel && end - start >= PARALLEL_FEATURES_MIN_ROWS) {
+            // Every feature has its own part of the histogram.
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (int f = 0; f < numFeatures; f++) {
+                int feature = f;
+                tasks.add(ForkJoinTask.adapt(() -> countBins(start, end, feature, histogram)));
+            }
+            ForkJoinTask.invokeAll(tasks);
+        } else {
+            for (int f = 0; f < numFeatures; f++) {
+                countBins(start, end, f, histogram);
+            }
+        }
+        return histogram;
+    }
+
+    // Adds the class counts per bin of one feature to the histogram.
+    private void countBins(int start, int end, int feature, int[] histogram) {
+        byte[] column = bins.bins[feature];
+        int first = bins.binStart[feature];
+        for (int i = start; i < end; i++) {
+            int row = rows[i];
+            histogram[(first + (column[row] & 0xFF)) * GROUPS + groupOf(labelOf(row))]++;
+        }
+    }
+
+    // Subtracts a child's histogram from its parent's in place and returns the parent's array, which now holds
+    // the other child's histogram.
+    private static int[] subtract(int[] parent, int[] child) {
+        for (int i = 0; i < parent.length; i++) {
+            parent[i] -= child[i];
+        }
+        return parent;
+    }
+
+    // The label of a row of 'data', from the backing array when there is one.
+    private int labelOf(int row) {
+        return labels != null ? labels[row] : data.getLabel(row);
+    }
+
+    // The class group a label is counted in by findBestSplit: the label itself, or NUM_CLASSES for unknown labels.
+    private static int groupOf(int label) {
+        return label >= 0 && label < NUM_CLASSES ? label : NUM_CLASSES;
+    }
+
+    private boolean isPure(int start, int end) {
+        if (end - start <= 1) {
             return true;
         }
-        int firstLabel = data.get(0).getLabel();
-        for (int i = 1; i < data.size(); i++) {
-            if (data.get(i).getLabel() != firstLabel) {
+        int firstLabel = labelOf(rows[start]);
+        for (int i = start + 1; i < end; i++) {
+            if (labelOf(rows[i]) != firstLabel) {
                 return false;
             }
         }
         return true;
     }
-}
\ No newline at end of file
+
+    /**
+     * Minimal cost-complexity pruning of a grown subtree, bottom-up: a node becomes a leaf if that costs no more
+     * than the best pruning of its two subtrees, counting R(leaf) = n / N * Gini plus ccpAlpha per leaf. This
+     * gives the smallest subtree of minimal cost, the same one weakest-link pruning stops at for this alpha.
+     * An empty training set is not pruned: its tree is a single leaf anyway, and n / N would be 0 / 0.
+     * @param start The first index in 'rows' of the rows that reached this node.
+     * @param end The index after the last one.
+     */
+    private PrunedSubtree prune(Node node, int start, int end) {
+        if (ccpAlpha == 0 || rows.length == 0) {
+            return new PrunedSubtree(node, 0, FlatTree.countNodes(node));
+        }
+        double leafCost = (double) (end - start) / rows.length * calculateGini(start, end) + ccpAlpha;
+        if (node.isLeaf()) {
+            return new PrunedSubtree(node, leafCost, 1);
+        }
+        // The rows are already partitioned for this question; partition() only finds the split point again.
+        SplitCondition condition = node.getSplitCondition();
+        int splitPoint = partition(start, end, condition.getFeatureIndex(), condition.getValue());
+        PrunedSubtree left = prune(node.getLeftChild(), start, splitPoint);
+        PrunedSubtree right = prune(node.getRightChild(), splitPoint, end);
+        int grownNodes = 1 + left.grownNodes + right.grownNodes;
+        if (leafCost <= left.cost + right.cost) {
+            return new PrunedSubtree(new Node(majorityVote(start, end)), leafCost, grownNodes);
+        }
+        return new PrunedSubtree(new Node(condition, left.node, right.node), left.cost + right.cost, grownNodes);
+    }
+
+    // The smallest split gain worth making in a node of 'size' rows (see setMinImpurityDecrease()).
+    private double minGain(int size) {
+        return minImpurityDecrease * rows.length / size;
+    }
+
+    // A subtree after pruning, with its cost R(T) + ccpAlpha * |leaves| and the number of nodes it had before.
+    private static final class PrunedSubtree {
+        final Node node;
+        final double cost;
+        final int grownNodes;
+
+        PrunedSubtree(Node node, double cost, int grownNodes) {
+            this.node = node;
+            this.cost = cost;
+            this.grownNodes = grownNodes;
+        }
+    }
+
+    // The best split found for one feature of a node.
+    private static final class FeatureSplit {
+        double gain;
+        double value;
+    }
+
+    // Builds the subtree of a node as a task of its own, for the parallel build.
+    private final class BuildTask extends RecursiveTask<Node> {
+        private static final long serialVersionUID = 1L;
+
+        private final int start;
+        private final int end;
+        private final int depth;
+        private final int[] histogram;
+
+        BuildTask(int start, int end, int depth, int[] histogram) {
+            this.start = start;
+            this.end = end;
+            this.depth = depth;
+            this.histogram = histogram;
+        }
+
+        @Override
+        protected Node compute() {
+            return buildTree(start, end, depth, histogram);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package models.decisionTree;
+
+import data.Dataset;
+
+import java.util.Arrays;
+
+/**
+ * The training rows of a DecisionTree with every feature value replaced by a bin number, for the histogram
+ * split search. Each feature is quantized once, into at most maxBins bins stored as one byte per row.
+ *
+ * A feature with at most maxBins distinct values gets one bin per value, so a split on a bin is exactly a
+ * split on that value (most features from DataLoader have only a handful of values). A feature with more
+ * values gets bins holding about the same number of rows each; equal values always share a bin.
+ *
+ * Bin b of a feature holds the values in (upperBound[b - 1], upperBound[b]], so "bin <= b" and
+ * "value <= upperBound[b]" select the same training rows. NaN values, which never go left, get a bin of their
+ * own after the value bins.
+ */
+class FeatureBins {
+
+    // The largest number of bins per feature: a bin number must fit in one (unsigned) byte.
+    static final int MAX_BINS = 256;
+
+    // bins[f][row] is the bin of the row's value of feature f, as an unsigned byte.
+    final byte[][] bins;
+    // upperBounds[f][b] is the largest training value of feature f in bin b.
+    final double[][] upperBounds;
+    // The bins of all features numbered one after another (the NaN bin included): feature f's bin b is
+    // binStart[f] + b. binStart[numFeatures] is the total number of bins.
+    final int[] binStart;
+
+    /**
+     * @param data The training rows.
+     * @param maxBins The largest number of bins per feature (including the NaN bin), at most MAX_BINS.
+     */
+    FeatureBins(Dataset data, int maxBins) {
+        int numFeatures = data.getFeatureCount();
+        int rows = data.size();
+        this.bins = new byte[numFeatures][rows];
+        this.upperBounds = new double[numFeatures][];
+        this.binStart = new int[numFeatures + 1];
+        double[] sorted = new double[rows];
+        for (int f = 0; f < numFeatures; f++) {
+            // The backing column of a heap dataset, null for a view or off-heap data.
+            double[] values = data.getColumn(f);
+            for (int row = 0; row < rows; row++) {
+                sorted[row] = values != null ? values[row] : data.getFeature(row, f);
+            }
+            Arrays.sort(sorted); // NaN sorts last
+            int valueRows = rows;
+            while (valueRows > 0 && Double.isNaN(sorted[valueRows - 1])) {
+                valueRows--;
+            }
+            double[] bounds = upperBounds(sorted, valueRows, valueRows < rows ? maxBins - 1 : maxBins);
+            upperBounds[f] = bounds;
+            binStart[f + 1] = binStart[f] + bounds.length + 1;
+            byte[] column = bins[f];
+            for (int row = 0; row < rows; row++) {
+                column[row] = (byte) binOf(bounds, values != null ? values[row] : data.getFeature(row, f));
+            }
+        }
+    }
+
+    /**
+     * @param feature The feature index.
+     * @return The number of value bins of the feature (a NaN bin, if any, comes after them).
+     */
+    int valueBinCount(int feature) {
+        return upperBounds[feature].length;
+    }
+
+    // Chooses the upper bound of every bin from the sorted non-NaN values sorted[0, count).
+    private static double[] upperBounds(double[] sorted, int count, int maxBins) {
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                distinct++;
+            }
+        }
+        double[] bounds = new double[Math.min(distinct, maxBins)];
+        int numBins = 0;
+        for (int i = 0; i < count; i++) {
+            // Close a bin at the end of a run of equal values, once the bin holds its share of the rows
+            // (every value gets its own bin when there are few enough).
+            boolean lastOfRun = i == count - 1 || sorted[i + 1] != sorted[i];
+            boolean full = distinct <= maxBins || (long) (i + 1) * maxBins >= (long) (numBins + 1) * count;
+            if (lastOfRun && full) {
+                bounds[numBins++] = sorted[i];
+                if (numBins == bounds.length) {
+                    bounds[numBins - 1] = sorted[count - 1]; // the last bin takes whatever is left
+                    break;
+                }
+            }
+        }
+        return numBins == bounds.length ? bounds : Arrays.copyOf(bounds, numBins);
+    }
+
+    // The first bin whose upper bound is at least the value; NaN goes to the bin after the value bins.
+    private static int binOf(double[] bounds, double value) {
+        if (Double.isNaN(value)) {
+            return bounds.length;
+        }
+        int low = 0;
+        int high = bounds.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (bounds[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
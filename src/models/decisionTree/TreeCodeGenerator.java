@@ -0,0 +1,396 @@
+package models.decisionTree;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns a FlatTree into a class of its own, defined as a hidden class, so the JIT sees the model as plain
+ * branching code: each question becomes
+ *
+ *   features[feature] <= threshold ? (yes branch) : (no branch)
+ *
+ * with the feature index and the threshold as constants, and each leaf becomes "return class".
+ *
+ * The class file is written by hand: the project targets Java 21, where java.lang.classfile does not exist yet
+ * (it is a preview API in Java 22 and 23, final in 24). It uses class file version 49,
+ * which the JVM verifies without stack map frames, so the only structures needed are the constant pool and the
+ * Code attribute of each method. The JIT does not compile methods of more than 8000 bytes of bytecode, so large
+ * subtrees are moved into methods of their own (of at most about METHOD_BYTES bytes each) and called.
+ *
+ * The JIT compiles the branches a prediction has taken so far, and recompiles a method when a row first takes a
+ * branch it has not seen, so a large tree reaches full speed only after a few million predictions.
+ *
+ * generate() returns null when the tree can not be turned into a class (a feature index or class that does not
+ * fit the 16-bit operand of sipush, too many distinct thresholds for the constant pool, or the JVM refuses the
+ * class); the caller then keeps using the FlatTree.
+ */
+final class TreeCodeGenerator {
+
+    // The largest subtree (in bytes of bytecode) that is inlined into its parent's method.
+    private static final int METHOD_BYTES = 4000;
+    // Bytes of bytecode for one question: aload_0, sipush feature, daload, ldc2_w threshold, dcmpg, ifgt.
+    private static final int QUESTION_BYTES = 1 + 3 + 1 + 3 + 1 + 3;
+    // Bytes for a leaf: sipush class, ireturn.
+    private static final int LEAF_BYTES = 3 + 1;
+    // Bytes for calling a subtree's method: aload_0, invokestatic, ireturn.
+    private static final int CALL_BYTES = 1 + 3 + 1;
+    private static final int MAX_CONSTANT_POOL = 65535;
+
+    private static final String CLASS_NAME = "models/decisionTree/GeneratedTree";
+    private static final String INTERFACE_NAME = "models/decisionTree/CompiledTree";
+    private static final String DESCRIPTOR = "([D)I";
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC2_W = 0x14;
+    private static final int DALOAD = 0x31;
+    private static final int DCMPG = 0x98;
+    private static final int IFGT = 0x9d;
+    private static final int IRETURN = 0xac;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+
+    private final FlatTree tree;
+    // The size of the code of each question's subtree, when inlined (see codeSize()).
+    private final int[] inlineBytes;
+
+    private final ByteArrayOutputStream constantBytes = new ByteArrayOutputStream();
+    private final DataOutputStream constants = new DataOutputStream(constantBytes);
+    private int constantCount = 1; // entry 0 is unused
+    private final Map<String, Integer> utf8Entries = new HashMap<>();
+    private final Map<Long, Integer> doubleEntries = new HashMap<>();
+
+    // The questions that get a method of their own, in the order the methods are numbered; the root is method 0.
+    private final List<Integer> methodRoots = new ArrayList<>();
+    private final Map<Integer, Integer> methodOfQuestion = new HashMap<>();
+
+    private TreeCodeGenerator(FlatTree tree) {
+        this.tree = tree;
+        this.inlineBytes = new int[tree.feature.length];
+    }
+
+    /**
+     * Turns a tree into a class. When that is not possible, the reason is printed to System.err.
+     * @param tree The compiled tree.
+     * @return An instance of the generated class, or null if the tree can not be turned into one.
+     */
+    static CompiledTree generate(FlatTree tree) {
+        if (!fitsSipush(tree.feature) || !fitsSipush(tree.leafValue)) {
+            System.err.println("Decision tree has a feature index or class outside the range of sipush, "
+                    + "using the interpreted tree.");
+            return null;
+        }
+        byte[] classFile = new TreeCodeGenerator(tree).writeClass();
+        if (classFile == null) {
+            System.err.println("Decision tree too large for one generated class, using the interpreted tree.");
+            return null;
+        }
+        try {
+            MethodHandles.Lookup generated = MethodHandles.lookup().defineHiddenClass(classFile, true);
+            return (CompiledTree) generated.lookupClass().getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError | IllegalArgumentException e) {
+            // The JVM rejected the class: keep the interpreted tree.
+            System.err.println("Could not define the generated decision tree class, using the interpreted tree: " + e);
+            return null;
+        }
+    }
+
+    // Whether every value can be the (signed 16-bit) operand of sipush.
+    private static boolean fitsSipush(int[] values) {
+        for (int value : values) {
+            if (value < Short.MIN_VALUE || value > Short.MAX_VALUE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Writes the class file, or returns null if it would not fit the class file limits.
+    private byte[] writeClass() {
+        try {
+            return writeClassFile();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // a ByteArrayOutputStream does not throw
+        }
+    }
+
+    private byte[] writeClassFile() throws IOException {
+        int thisClass = classEntry(CLASS_NAME);
+        int superClass = classEntry("java/lang/Object");
+        int interfaceClass = classEntry(INTERFACE_NAME);
+        int code = utf8Entry("Code");
+        int init = utf8Entry("<init>");
+        int voidDescriptor = utf8Entry("()V");
+        int objectInit = methodEntry(superClass, init, voidDescriptor);
+        int predict = utf8Entry("predict");
+        int descriptor = utf8Entry(DESCRIPTOR);
+
+        // Choose the methods, then write their code (which adds the thresholds to the constant pool).
+        List<byte[]> methodCode = new ArrayList<>();
+        if (tree.root >= 0) {
+            codeSize(tree.root);
+            addMethod(tree.root);
+            for (int m = 0; m < methodRoots.size(); m++) {
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                writeSubtree(methodRoots.get(m), body);
+                methodCode.add(body.toByteArray());
+                if (constantCount > MAX_CONSTANT_POOL - 3 * methodRoots.size()) {
+                    return null;
+                }
+            }
+        }
+        int[] methodNames = new int[methodRoots.size()];
+        int[] methodRefs = new int[methodRoots.size()];
+        for (int m = 0; m < methodRoots.size(); m++) {
+            methodNames[m] = utf8Entry("q" + m);
+            methodRefs[m] = methodEntry(thisClass, methodNames[m], descriptor);
+        }
+        // The calls in the method bodies were written with placeholder indexes (the method number).
+        for (byte[] body : methodCode) {
+            patchCalls(body, methodRefs);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);  // minor version
+        out.writeShort(49); // major version: Java 5, verified without stack map frames
+        out.writeShort(constantCount);
+        constants.flush();
+        out.write(constantBytes.toByteArray());
+        out.writeShort(0x0030); // ACC_FINAL | ACC_SUPER
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(1);
+        out.writeShort(interfaceClass);
+        out.writeShort(0); // fields
+        out.writeShort(2 + methodRoots.size());
+
+        // public GeneratedTree() { super(); }
+        writeMethod(out, 0x0001, init, voidDescriptor, code, 1, 1,
+                new byte[] {ALOAD_0, (byte) INVOKESPECIAL, (byte) (objectInit >> 8), (byte) objectInit, (byte) RETURN});
+
+        // public int predict(double[] features): the root's method, or the class of a tree that is one leaf.
+        ByteArrayOutputStream predictCode = new ByteArrayOutputStream();
+        if (tree.root >= 0) {
+            predictCode.write(ALOAD_1);
+            predictCode.write(INVOKESTATIC);
+            predictCode.write(methodRefs[0] >> 8);
+            predictCode.write(methodRefs[0]);
+            predictCode.write(IRETURN);
+        } else {
+            writeLeaf(~tree.root, predictCode);
+        }
+        writeMethod(out, 0x0001, predict, descriptor, code, 2, 2, predictCode.toByteArray());
+
+        // private static int qN(double[] features), one per method root.
+        for (int m = 0; m < methodRoots.size(); m++) {
+            writeMethod(out, 0x000A, methodNames[m], descriptor, code, 4, 1, methodCode.get(m));
+        }
+        out.writeShort(0); // class attributes
+        return bytes.toByteArray();
+    }
+
+    // Computes the inlined code size of a question's subtree; a child subtree that is too large for its
+    // parent's method is marked to get a method of its own (it then costs only a call).
+    private int codeSize(int question) {
+        int size = QUESTION_BYTES + childSize(tree.left[question]) + childSize(tree.right[question]);
+        inlineBytes[question] = size;
+        return size;
+    }
+
+    private int childSize(int child) {
+        if (child >= 0) {
+            codeSize(child);
+        }
+        return writtenSize(child);
+    }
+
+    // The bytes writeChild() writes for a child, once codeSize() has run.
+    private int writtenSize(int child) {
+        if (child < 0) {
+            return LEAF_BYTES;
+        }
+        return ownMethod(child) ? CALL_BYTES : inlineBytes[child];
+    }
+
+    private boolean ownMethod(int question) {
+        return inlineBytes[question] > METHOD_BYTES / 2;
+    }
+
+    private void addMethod(int question) {
+        methodOfQuestion.put(question, methodRoots.size());
+        methodRoots.add(question);
+    }
+
+    // Writes the code of a subtree. Children with a method of their own are called (and queued for writing).
+    private void writeSubtree(int question, ByteArrayOutputStream body) {
+        body.write(ALOAD_0);
+        body.write(SIPUSH);
+        body.write(tree.feature[question] >> 8);
+        body.write(tree.feature[question]);
+        body.write(DALOAD);
+        int threshold = doubleEntry(tree.threshold[question]);
+        body.write(LDC2_W);
+        body.write(threshold >> 8);
+        body.write(threshold);
+        // dcmpg pushes 1 when the feature is greater than the threshold or either is NaN: "no" in both cases,
+        // exactly like "<=" in FlatTree.
+        body.write(DCMPG);
+        // The jump skips the ifgt itself and the "yes" branch.
+        int offset = 3 + writtenSize(tree.left[question]);
+        body.write(IFGT);
+        body.write(offset >> 8);
+        body.write(offset);
+        writeChild(tree.left[question], body);
+        writeChild(tree.right[question], body);
+    }
+
+    private void writeChild(int child, ByteArrayOutputStream body) {
+        if (child < 0) {
+            writeLeaf(~child, body);
+        } else if (ownMethod(child)) {
+            Integer method = methodOfQuestion.get(child);
+            if (method == null) {
+                method = methodRoots.size();
+                addMethod(child);
+            }
+            body.write(ALOAD_0);
+            body.write(INVOKESTATIC);
+            body.write(method >> 8); // the method's number for now; patchCalls() puts in its constant
+            body.write(method);
+            body.write(IRETURN);
+        } else {
+            writeSubtree(child, body);
+        }
+    }
+
+    private void writeLeaf(int leaf, ByteArrayOutputStream body) {
+        int prediction = tree.leafValue[leaf];
+        body.write(SIPUSH);
+        body.write(prediction >> 8);
+        body.write(prediction);
+        body.write(IRETURN);
+    }
+
+    // Replaces the method numbers after every invokestatic with the index of the method's constant. The code
+    // is walked instruction by instruction, so an operand byte is never mistaken for an opcode.
+    private static void patchCalls(byte[] body, int[] methodRefs) {
+        int pc = 0;
+        while (pc < body.length) {
+            int opcode = body[pc] & 0xFF;
+            switch (opcode) {
+                case INVOKESTATIC:
+                    int method = ((body[pc + 1] & 0xFF) << 8) | (body[pc + 2] & 0xFF);
+                    body[pc + 1] = (byte) (methodRefs[method] >> 8);
+                    body[pc + 2] = (byte) methodRefs[method];
+                    pc += 3;
+                    break;
+                case SIPUSH:
+                case LDC2_W:
+                case IFGT:
+                    pc += 3;
+                    break;
+                default:
+                    pc += 1;
+            }
+        }
+    }
+
+    private static void writeMethod(DataOutputStream out, int access, int name, int descriptor, int codeAttribute,
+                                    int maxStack, int maxLocals, byte[] code) throws IOException {
+        out.writeShort(access);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1); // attributes: Code
+        out.writeShort(codeAttribute);
+        out.writeInt(2 + 2 + 4 + code.length + 2 + 2);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // code attributes
+    }
+
+    private int utf8Entry(String value) {
+        Integer index = utf8Entries.get(value);
+        if (index == null) {
+            index = constantCount++;
+            write(() -> {
+                constants.writeByte(CONSTANT_UTF8);
+                constants.writeUTF(value);
+            });
+            utf8Entries.put(value, index);
+        }
+        return index;
+    }
+
+    private int classEntry(String name) {
+        int nameIndex = utf8Entry(name);
+        int index = constantCount++;
+        write(() -> {
+            constants.writeByte(CONSTANT_CLASS);
+            constants.writeShort(nameIndex);
+        });
+        return index;
+    }
+
+    private int methodEntry(int owner, int name, int descriptor) {
+        int nameAndType = constantCount++;
+        write(() -> {
+            constants.writeByte(CONSTANT_NAME_AND_TYPE);
+            constants.writeShort(name);
+            constants.writeShort(descriptor);
+        });
+        int index = constantCount++;
+        write(() -> {
+            constants.writeByte(CONSTANT_METHODREF);
+            constants.writeShort(owner);
+            constants.writeShort(nameAndType);
+        });
+        return index;
+    }
+
+    // Double constants take two entries of the constant pool.
+    private int doubleEntry(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        Integer index = doubleEntries.get(bits);
+        if (index == null) {
+            index = constantCount;
+            constantCount += 2;
+            write(() -> {
+                constants.writeByte(CONSTANT_DOUBLE);
+                constants.writeLong(bits);
+            });
+            doubleEntries.put(bits, index);
+        }
+        return index;
+    }
+
+    private interface ConstantWriter {
+        void write() throws IOException;
+    }
+
+    private static void write(ConstantWriter writer) {
+        try {
+            writer.write();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // a ByteArrayOutputStream does not throw
+        }
+    }
+}
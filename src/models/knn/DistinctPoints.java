@@ -0,0 +1,122 @@
+package models.knn;
+
+import java.util.Arrays;
+
+/**
+ * The training rows of a KNN model, with identical feature vectors collapsed into one point.
+ *
+ * The features DataLoader produces are almost all discrete (age bucket, gender, year, CGPA bucket, ...), so
+ * many students share exactly the same vector. Searching the distinct vectors instead of the rows saves one
+ * distance computation (and numFeatures doubles of memory) per duplicate.
+ *
+ * Points are numbered in the order of their first row. Each point remembers its rows in increasing order and
+ * how many of them have each label, so a vote can still be cast over the k nearest rows, not points.
+ */
+class DistinctPoints {
+
+    // The distinct vectors, flat, point after point.
+    final double[] features;
+    final int numPoints;
+    // classCounts[p * numClasses + c] is the number of rows of point p with label c.
+    final int[] classCounts;
+    // The rows of point p are memberRows[memberStart[p] .. memberStart[p + 1]), in increasing order.
+    final int[] memberStart;
+    final int[] memberRows;
+
+    /**
+     * @param flatRows The (scaled) training rows, row after row. Kept by reference if nothing is collapsed.
+     * @param labels The label of every row.
+     * @param numRows The number of rows.
+     * @param numFeatures The number of features per row.
+     * @param numClasses The largest label plus one.
+     * @param collapse False to keep every row as a point of its own (the reference behaviour).
+     */
+    DistinctPoints(double[] flatRows, int[] labels, int numRows, int numFeatures, int numClasses, boolean collapse) {
+        int[] pointOfRow = new int[numRows];
+        if (collapse) {
+            double[] distinct = new double[numRows * numFeatures];
+            int count = collapse(flatRows, numRows, numFeatures, distinct, pointOfRow);
+            this.features = count == numRows ? distinct : Arrays.copyOf(distinct, count * numFeatures);
+            this.numPoints = count;
+        } else {
+            for (int i = 0; i < numRows; i++) {
+                pointOfRow[i] = i;
+            }
+            this.features = flatRows;
+            this.numPoints = numRows;
+        }
+
+        // Group the rows by point. Rows are visited in increasing order, so every group ends up sorted.
+        this.memberStart = new int[numPoints + 1];
+        for (int i = 0; i < numRows; i++) {
+            memberStart[pointOfRow[i] + 1]++;
+        }
+        for (int p = 0; p < numPoints; p++) {
+            memberStart[p + 1] += memberStart[p];
+        }
+        this.memberRows = new int[numRows];
+        int[] next = Arrays.copyOf(memberStart, numPoints);
+        this.classCounts = new int[numPoints * numClasses];
+        for (int i = 0; i < numRows; i++) {
+            int point = pointOfRow[i];
+            memberRows[next[point]++] = i;
+            if (labels[i] >= 0) {
+                classCounts[point * numClasses + labels[i]]++;
+            }
+        }
+    }
+
+    // Copies every vector the first time it is seen into 'distinct' and records which point each row became.
+    // An open-addressing hash table of point numbers finds earlier copies. Returns the number of points.
+    private static int collapse(double[] flatRows, int numRows, int numFeatures, double[] distinct, int[] pointOfRow) {
+        int capacity = Integer.highestOneBit(Math.max(1, numRows)) << 2; // at least twice the rows
+        int[] slots = new int[capacity];
+        Arrays.fill(slots, -1);
+        int[] pointHashes = new int[numRows];
+        int mask = capacity - 1;
+        int count = 0;
+        for (int i = 0; i < numRows; i++) {
+            int offset = i * numFeatures;
+            int hash = hash(flatRows, offset, numFeatures);
+            int slot = hash & mask;
+            int point = -1;
+            while (slots[slot] >= 0) {
+                int candidate = slots[slot];
+                if (pointHashes[candidate] == hash && sameVector(flatRows, offset, distinct, candidate * numFeatures, numFeatures)) {
+                    point = candidate;
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (point < 0) {
+                point = count++;
+                System.arraycopy(flatRows, offset, distinct, point * numFeatures, numFeatures);
+                pointHashes[point] = hash;
+                slots[slot] = point;
+            }
+            pointOfRow[i] = point;
+        }
+        return count;
+    }
+
+    private static int hash(double[] rows, int offset, int numFeatures) {
+        long h = 1;
+        for (int f = 0; f < numFeatures; f++) {
+            // + 0.0 turns -0.0 into 0.0: the two are equal, so they must hash alike.
+            h = 31 * h + Double.doubleToLongBits(rows[offset + f] + 0.0);
+        }
+        // The low bits of small, round doubles are mostly zero: mix the high bits down before masking.
+        h *= 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32);
+    }
+
+    // Uses == so that the vectors are the same exactly when every distance to them is the same.
+    private static boolean sameVector(double[] a, int offsetA, double[] b, int offsetB, int numFeatures) {
+        for (int f = 0; f < numFeatures; f++) {
+            if (a[offsetA + f] != b[offsetB + f]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
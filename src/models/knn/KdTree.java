@@ -0,0 +1,194 @@
+package models.knn;
+
+import java.util.Arrays;
+
+/**
+ * A k-d tree over the training rows of a KNN model, for exact k-nearest-neighbor search.
+ *
+ * Every inner node splits its rows at the median of the feature with the largest spread: rows in the left
+ * child have a value <= the split value, rows in the right child a value >= it. A query walks down to the
+ * leaf on its own side first and only visits the other side of a split if the distance to the split plane
+ * is not larger than the distance of the k-th best neighbor found so far. Everything behind a plane that
+ * is farther away can not contain a better (or equally good) neighbor and is skipped.
+ *
+ * Distances are computed with exactly the same arithmetic as the brute-force search (squared, see
+ * KNN.squaredDistance), and the bound only prunes strictly worse subtrees, so the tree finds exactly the
+ * same neighbors, ties included.
+ *
+ * The nodes are kept in parallel primitive arrays and the rows are copied into tree order, so the rows of
+ * a leaf are next to each other in memory.
+ */
+class KdTree {
+
+    // Nodes with at most this many rows are not split any further.
+    private static final int LEAF_SIZE = 16;
+
+    private final int numFeatures;
+
+    // The training rows in tree order (flat, row after row), and the original row number of each of them.
+    private final double[] points;
+    private final int[] pointRows;
+
+    // Node i: splitFeature[i] is -1 for a leaf, which holds points [start[i], end[i]).
+    private int[] splitFeature;
+    private double[] splitValue;
+    private int[] left;
+    private int[] right;
+    private int[] start;
+    private int[] end;
+    private int nodeCount;
+
+    /**
+     * Builds the tree.
+     * @param flatRows The training rows, row after row (numRows * numFeatures values). Not modified.
+     * @param numRows The number of rows.
+     * @param numFeatures The number of features per row.
+     */
+    KdTree(double[] flatRows, int numRows, int numFeatures) {
+        this.numFeatures = numFeatures;
+        int initialNodes = Math.max(1, 4 * numRows / LEAF_SIZE);
+        this.splitFeature = new int[initialNodes];
+        this.splitValue = new double[initialNodes];
+        this.left = new int[initialNodes];
+        this.right = new int[initialNodes];
+        this.start = new int[initialNodes];
+        this.end = new int[initialNodes];
+
+        int[] order = new int[numRows];
+        for (int i = 0; i < numRows; i++) {
+            order[i] = i;
+        }
+        build(flatRows, order, 0, numRows);
+
+        // Copy the rows into tree order.
+        this.points = new double[numRows * numFeatures];
+        this.pointRows = order;
+        for (int i = 0; i < numRows; i++) {
+            System.arraycopy(flatRows, order[i] * numFeatures, points, i * numFeatures, numFeatures);
+        }
+    }
+
+    /**
+     * Finds the k nearest training rows of a query. k is the capacity of the heap.
+     * @param query The query features.
+     * @param heap An empty heap; afterwards it holds the nearest rows.
+     */
+    void search(double[] query, NeighborHeap heap) {
+        if (nodeCount > 0) {
+            search(0, query, heap);
+        }
+    }
+
+    // =================================================================
+    // HELPER METHODS
+    // =================================================================
+
+    private void search(int node, double[] query, NeighborHeap heap) {
+        int feature = splitFeature[node];
+        if (feature < 0) {
+            // No early exit here: rows that reach a leaf are mostly close to the query, so checking for one
+            // costs more than it saves (measured with KnnBenchmark).
+            for (int p = start[node]; p < end[node]; p++) {
+                double distance = KNN.squaredDistance(query, points, p * numFeatures, numFeatures, Double.POSITIVE_INFINITY);
+                heap.offer(distance, pointRows[p]);
+            }
+            return;
+        }
+        double diff = query[feature] - splitValue[node];
+        int near = diff < 0 ? left[node] : right[node];
+        int far = diff < 0 ? right[node] : left[node];
+        search(near, query, heap);
+        // Every row behind the plane is at least diff^2 away (squared). Visit it unless that is strictly worse
+        // than the k-th best distance: an equally distant row with a lower row number would still win the tie.
+        if (!heap.isFull() || diff * diff <= heap.worstDistance()) {
+            search(far, query, heap);
+        }
+    }
+
+    // Builds the subtree over order[from, to) and returns its node number.
+    private int build(double[] rows, int[] order, int from, int to) {
+        int node = newNode();
+        start[node] = from;
+        end[node] = to;
+        splitFeature[node] = -1;
+        if (to - from <= LEAF_SIZE) {
+            return node;
+        }
+
+        // Split on the feature whose values are spread the most.
+        int bestFeature = -1;
+        double bestSpread = 0.0;
+        for (int f = 0; f < numFeatures; f++) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = from; i < to; i++) {
+                double value = rows[order[i] * numFeatures + f];
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            if (max - min > bestSpread) {
+                bestSpread = max - min;
+                bestFeature = f;
+            }
+        }
+        if (bestFeature < 0) {
+            return node; // All rows are identical, nothing to split.
+        }
+
+        int mid = (from + to) >>> 1;
+        select(rows, order, from, to - 1, mid, bestFeature);
+        splitFeature[node] = bestFeature;
+        splitValue[node] = rows[order[mid] * numFeatures + bestFeature];
+        int leftChild = build(rows, order, from, mid);
+        int rightChild = build(rows, order, mid, to);
+        left[node] = leftChild;
+        right[node] = rightChild;
+        return node;
+    }
+
+    // Quickselect: reorders order[lo..hi] so that order[k] holds the row with the k-th smallest value of the
+    // feature, everything before it is <= and everything after it is >=.
+    private void select(double[] rows, int[] order, int lo, int hi, int k, int feature) {
+        while (hi > lo) {
+            double pivot = rows[order[(lo + hi) >>> 1] * numFeatures + feature];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (rows[order[i] * numFeatures + feature] < pivot) {
+                    i++;
+                }
+                while (rows[order[j] * numFeatures + feature] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int tmp = order[i];
+                    order[i] = order[j];
+                    order[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            // Now order[lo..j] <= pivot, order[i..hi] >= pivot and everything in between equals the pivot.
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private int newNode() {
+        if (nodeCount == splitFeature.length) {
+            int capacity = splitFeature.length * 2;
+            splitFeature = Arrays.copyOf(splitFeature, capacity);
+            splitValue = Arrays.copyOf(splitValue, capacity);
+            left = Arrays.copyOf(left, capacity);
+            right = Arrays.copyOf(right, capacity);
+            start = Arrays.copyOf(start, capacity);
+            end = Arrays.copyOf(end, capacity);
+        }
+        return nodeCount++;
+    }
+}
@@ -0,0 +1,172 @@
+package models.knn;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Approximate nearest-neighbor search with locality-sensitive hashing (random projections, "E2LSH").
+ *
+ * Every hash function projects a row onto a random direction and cuts that line into buckets of a fixed
+ * width: h(x) = floor((a . x + b) / bucketWidth). Rows that are close together usually land in the same
+ * bucket. A table combines several such hashes into one key, so a bucket of the table only holds rows that
+ * agree on all of them; several independent tables make it likely that a true neighbor shares at least one
+ * bucket with the query. A query then only measures the rows in its own bucket of every table.
+ *
+ * The knobs trade recall for speed:
+ * - more tables: more candidates, higher recall, slower queries and more memory (one int[] per table);
+ * - more hashes per table: smaller buckets, fewer candidates, lower recall, faster queries;
+ * - a wider bucket: larger buckets, more candidates, higher recall, slower queries.
+ *
+ * Every table is stored as the row numbers sorted by their key, so a bucket is a range found by binary
+ * search, and no objects are created per row or per query.
+ */
+class LshIndex {
+
+    private final int numFeatures;
+    private final int numTables;
+    private final int hashesPerTable;
+    private final double bucketWidth;
+
+    // The training rows (flat, row after row), shared with the KNN model.
+    private final double[] rows;
+
+    // projections[(t * hashesPerTable + h) * numFeatures + f] is component f of the direction of hash h in
+    // table t, and offsets[t * hashesPerTable + h] its random shift b in [0, bucketWidth).
+    private final double[] projections;
+    private final double[] offsets;
+
+    // tableKeys[t] holds the bucket key of every row in ascending order, tableRows[t] the matching rows.
+    private final int[][] tableKeys;
+    private final int[][] tableRows;
+
+    // Marks the rows a query has already measured (they can be in the same bucket of several tables).
+    // A row is marked when visited[row] equals the current query's stamp, so the array is never cleared.
+    private final ThreadLocal<VisitedRows> visited;
+
+    private static class VisitedRows {
+        final int[] stamps;
+        int stamp;
+
+        VisitedRows(int numRows) {
+            this.stamps = new int[numRows];
+        }
+    }
+
+    /**
+     * Hashes every training row into every table.
+     * @param flatRows The training rows, row after row. Kept by reference, not copied.
+     * @param numRows The number of rows.
+     * @param numFeatures The number of features per row.
+     * @param numTables The number of hash tables (L).
+     * @param hashesPerTable The number of hashes combined into one key (m).
+     * @param bucketWidth The width of a bucket on each projection line (w), in feature units.
+     * @param seed The seed of the random projections.
+     */
+    LshIndex(double[] flatRows, int numRows, int numFeatures, int numTables, int hashesPerTable,
+             double bucketWidth, long seed) {
+        this.rows = flatRows;
+        this.numFeatures = numFeatures;
+        this.numTables = numTables;
+        this.hashesPerTable = hashesPerTable;
+        this.bucketWidth = bucketWidth;
+
+        Random random = new Random(seed);
+        this.projections = new double[numTables * hashesPerTable * numFeatures];
+        this.offsets = new double[numTables * hashesPerTable];
+        for (int i = 0; i < projections.length; i++) {
+            projections[i] = random.nextGaussian();
+        }
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = random.nextDouble() * bucketWidth;
+        }
+
+        this.tableKeys = new int[numTables][numRows];
+        this.tableRows = new int[numTables][numRows];
+        long[] packed = new long[numRows];
+        for (int t = 0; t < numTables; t++) {
+            // Sort (key, row) pairs packed into one long, so a primitive sort does the work.
+            for (int r = 0; r < numRows; r++) {
+                packed[r] = ((long) key(t, flatRows, r * numFeatures) << 32) | r;
+            }
+            Arrays.sort(packed);
+            for (int i = 0; i < numRows; i++) {
+                tableKeys[t][i] = (int) (packed[i] >> 32);
+                tableRows[t][i] = (int) packed[i];
+            }
+        }
+        this.visited = ThreadLocal.withInitial(() -> new VisitedRows(numRows));
+    }
+
+    /**
+     * Offers every row that shares a bucket with the query (in at least one table) to the heap.
+     * @param query The query features.
+     * @param heap An empty heap; afterwards it holds the nearest of the candidates.
+     * @return The number of distinct candidate rows that were measured.
+     */
+    int search(double[] query, NeighborHeap heap) {
+        VisitedRows seen = visited.get();
+        if (++seen.stamp == 0) {
+            // The stamp wrapped around after 2^32 queries: forget all old marks.
+            Arrays.fill(seen.stamps, 0);
+            seen.stamp = 1;
+        }
+        int candidates = 0;
+        for (int t = 0; t < numTables; t++) {
+            int key = key(t, query, 0);
+            int[] keys = tableKeys[t];
+            int[] tableRowNumbers = tableRows[t];
+            for (int i = firstIndexOf(keys, key); i < keys.length && keys[i] == key; i++) {
+                int row = tableRowNumbers[i];
+                if (seen.stamps[row] == seen.stamp) {
+                    continue;
+                }
+                seen.stamps[row] = seen.stamp;
+                candidates++;
+                double limit = heap.isFull() ? heap.worstDistance() : Double.POSITIVE_INFINITY;
+                heap.offer(KNN.squaredDistance(query, rows, row * numFeatures, numFeatures, limit), row);
+            }
+        }
+        return candidates;
+    }
+
+    // =================================================================
+    // HELPER METHODS
+    // =================================================================
+
+    // The bucket key of the vector at values[offset ..] in table t: the bucket numbers of all hashes of the
+    // table, mixed into one int. Two different bucket combinations can (rarely) get the same key, which
+    // only adds a few extra candidates.
+    private int key(int table, double[] values, int offset) {
+        int key = table;
+        for (int h = 0; h < hashesPerTable; h++) {
+            int hash = table * hashesPerTable + h;
+            int base = hash * numFeatures;
+            double dot = offsets[hash];
+            for (int f = 0; f < numFeatures; f++) {
+                dot += projections[base + f] * values[offset + f];
+            }
+            int bucket = (int) Math.floor(dot / bucketWidth);
+            key = key * 0x9E3779B1 + bucket;
+        }
+        // Final mix (from MurmurHash3), so neighboring bucket numbers do not give neighboring keys.
+        key ^= key >>> 16;
+        key *= 0x85EBCA6B;
+        key ^= key >>> 13;
+        return key;
+    }
+
+    // Binary search for the first position of 'key' in the sorted array (or where it would be).
+    private static int firstIndexOf(int[] keys, int key) {
+        int lo = 0;
+        int hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
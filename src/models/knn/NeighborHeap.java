@@ -0,0 +1,130 @@
+package models.knn;
+
+/**
+ * The k best neighbors seen so far during one search, kept in a max-heap so the current worst of them
+ * (the one a new candidate has to beat) is always at the top.
+ *
+ * The heap is made of two parallel primitive arrays instead of Neighbor objects, so a search creates no
+ * garbage. Neighbors are ordered by (squared) distance and then by training row number, which is the same order a
+ * stable sort by distance over the training rows produces: of two equally distant rows, the earlier one wins.
+ */
+class NeighborHeap {
+
+    private final double[] distances;
+    private final int[] rows;
+    private int size;
+
+    /**
+     * @param capacity k, the number of neighbors to keep.
+     */
+    NeighborHeap(int capacity) {
+        this.distances = new double[capacity];
+        this.rows = new int[capacity];
+    }
+
+    /**
+     * Empties the heap so it can be reused for the next query.
+     */
+    void clear() {
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isFull() {
+        return size == distances.length;
+    }
+
+    /**
+     * @return The distance of the worst neighbor kept so far. Only meaningful when the heap is full.
+     */
+    double worstDistance() {
+        return distances[0];
+    }
+
+    /**
+     * @return The distance of the i-th kept neighbor (in heap order, not sorted).
+     */
+    double distance(int i) {
+        return distances[i];
+    }
+
+    /**
+     * @return The training row of the i-th kept neighbor (in heap order, not sorted).
+     */
+    int row(int i) {
+        return rows[i];
+    }
+
+    /**
+     * Keeps the candidate if the heap is not full yet, or if it is better than the current worst neighbor.
+     * @param distance The candidate's distance to the query.
+     * @param row The candidate's training row number.
+     */
+    void offer(double distance, int row) {
+        if (size < distances.length) {
+            // Sift the new element up from the end.
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!isWorse(distance, row, distances[parent], rows[parent])) {
+                    break;
+                }
+                distances[i] = distances[parent];
+                rows[i] = rows[parent];
+                i = parent;
+            }
+            distances[i] = distance;
+            rows[i] = row;
+        } else if (isWorse(distances[0], rows[0], distance, row)) {
+            // Replace the worst neighbor and sift the new element down from the top.
+            siftDown(distance, row, size);
+        }
+    }
+
+    /**
+     * Sorts the kept neighbors from nearest to farthest (ties by row number), in place. Afterwards
+     * distance(i) and row(i) walk the neighbors in that order, and the heap must be cleared before the
+     * next offer().
+     */
+    void sort() {
+        for (int last = size - 1; last > 0; last--) {
+            // Move the worst of heap[0, last] to the end, then restore the heap over [0, last).
+            double distance = distances[last];
+            int row = rows[last];
+            distances[last] = distances[0];
+            rows[last] = rows[0];
+            siftDown(distance, row, last);
+        }
+    }
+
+    // Places (distance, row) at the top of the heap over the first 'heapSize' slots and sifts it down.
+    private void siftDown(double distance, int row, int heapSize) {
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && isWorse(distances[child + 1], rows[child + 1], distances[child], rows[child])) {
+                child++;
+            }
+            if (!isWorse(distances[child], rows[child], distance, row)) {
+                break;
+            }
+            distances[i] = distances[child];
+            rows[i] = rows[child];
+            i = child;
+        }
+        distances[i] = distance;
+        rows[i] = row;
+    }
+
+    // True if neighbor (distanceA, rowA) comes after neighbor (distanceB, rowB) in the neighbor order.
+    private static boolean isWorse(double distanceA, int rowA, double distanceB, int rowB) {
+        int byDistance = Double.compare(distanceA, distanceB);
+        return byDistance > 0 || (byDistance == 0 && rowA > rowB);
+    }
+}
@@ -1,68 +1,398 @@
 package models.logisticRegression;
 
 import data.DataPoint;
+import data.Dataset;
+import data.FeatureScaler;
+import data.RowFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * A from-scratch implementation of Multi-class Logistic Regression (Softmax Regression).
  */
 public class LogisticRegression {
 
-    private double[][] weights;
-    private double[] biases;
+    /**
+     * How train() spreads the work of an epoch.
+     */
+    public enum TrainingMode {
+        // Per-sample SGD over the rows in order, on the calling thread.
+        SEQUENTIAL,
+        // Per-sample SGD, with the rows of every epoch split into one slice per thread. The threads update the
+        // shared weights without any locking ("Hogwild!"): an update may occasionally be lost or based on
+        // slightly stale weights, which SGD tolerates. Fast, but not reproducible from run to run.
+        HOGWILD,
+        // Mini-batch gradient descent: the gradient of a whole batch is computed in parallel with the weights
+        // held fixed, then applied in one step. The result is the same for every run and every thread count.
+        SYNCHRONOUS_MINIBATCH
+    }
+
+    /**
+     * The optimizer train() uses.
+     */
+    public enum Solver {
+        // Gradient descent over single rows or mini-batches, as chosen by the TrainingMode.
+        SGD,
+        // Full-batch L-BFGS: every iteration uses the gradient of the whole training set (computed in parallel)
+        // and an estimate of the curvature built from the last few steps. Needs no learning rate and usually
+        // converges in far fewer passes over the data. The training mode and learning rate are ignored.
+        LBFGS
+    }
+
+    /**
+     * How the SGD learning rate changes from epoch to epoch.
+     */
+    public enum LearningRateSchedule {
+        // Always the learning rate given to the constructor.
+        CONSTANT,
+        // learningRate / (1 + decay * epoch): big steps first, smaller ones as the weights settle.
+        INVERSE_TIME,
+        // The rate is divided by 5 each time the loss stalls (see setEarlyStopping()); training stops once it
+        // has been cut MAX_RATE_CUTS times.
+        ADAPTIVE
+    }
+
+    // SYNCHRONOUS_MINIBATCH: a batch is split into chunks of this many rows, one task each. The chunk
+    // gradients are always added up in chunk order, so the thread count does not change the result.
+    private static final int GRADIENT_CHUNK = 128;
+    // LBFGS: the full-batch gradient is computed in (at most) this many chunks.
+    private static final int FULL_BATCH_CHUNKS = 64;
+    // LBFGS: how many recent steps the curvature estimate remembers.
+    private static final int LBFGS_HISTORY = 10;
+    // LBFGS stops once no partial derivative is larger than this.
+    private static final double GRADIENT_TOLERANCE = 1e-6;
+    private static final int MAX_LINE_SEARCH_STEPS = 30;
+    private static final int MAX_RATE_CUTS = 5;
+    // The rows of a Dataset are copied out this many at a time (see Dataset.copyRows()) and then scaled and
+    // learned from one by one.
+    private static final int ROW_BLOCK = 256;
+
+    // The weight matrix W, stored class by class in one flat array: the weight of feature i for class j is
+    // weights[j * numFeatures + i]. Computing the score of a class, and updating its weights, is then one
+    // contiguous scan.
+    private final double[] weights;
+    private final double[] biases;
+    private final int numFeatures;
+    private final int numClasses;
     private final double learningRate;
     private final int epochs;
 
+    private TrainingMode trainingMode = TrainingMode.SEQUENTIAL;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int batchSize = 1024;
+
+    private Solver solver = Solver.SGD;
+    private LearningRateSchedule schedule = LearningRateSchedule.CONSTANT;
+    private double learningRateDecay;
+    private boolean earlyStopping;
+    private double tolerance = 1e-4;
+    private int patience = 5;
+
+    // The loss after every epoch (SGD) or iteration (LBFGS) of the last train() call, and how many times that
+    // call read the whole training set.
+    private double[] lossHistory = new double[0];
+    private int dataPasses;
+
+    // Optional feature scaling. When set, the model is trained on scaled features, and predict() applies
+    // the same scaling on the fly, so callers always pass raw features.
+    // 'scaler' is the one passed to setScaler(); the model scales with trainedScaler, a copy of it taken by
+    // setScaler() and again at the start of every train(), so rows the caller's scaler sees later do not
+    // change the scaling the weights were learned with.
+    private FeatureScaler scaler;
+    private FeatureScaler trainedScaler;
+
+    // The buffers predict() and loss() need, allocated once per thread, so they create no garbage.
+    private final ThreadLocal<Scratch> scratch = new ThreadLocal<>();
+
+    private static class Scratch {
+        final double[] features;
+        final double[] scores;
+
+        Scratch(int numFeatures, int numClasses) {
+            this.features = new double[numFeatures];
+            this.scores = new double[numClasses];
+        }
+    }
+
     public LogisticRegression(int numFeatures, int numClasses, double learningRate, int epochs) {
+        this(numFeatures, numClasses, learningRate, epochs, new Random());
+    }
+
+    /**
+     * Creates a model whose initial weights come from a seeded generator, so training (in any mode but
+     * HOGWILD) gives the same model on every run.
+     */
+    public LogisticRegression(int numFeatures, int numClasses, double learningRate, int epochs, long seed) {
+        this(numFeatures, numClasses, learningRate, epochs, new Random(seed));
+    }
+
+    private LogisticRegression(int numFeatures, int numClasses, double learningRate, int epochs, Random rand) {
         this.learningRate = learningRate;
         this.epochs = epochs;
-        this.weights = new double[numFeatures][numClasses];
+        this.numFeatures = numFeatures;
+        this.numClasses = numClasses;
+        this.weights = new double[numClasses * numFeatures];
         this.biases = new double[numClasses];
 
-        Random rand = new Random();
         for (int i = 0; i < numFeatures; i++) {
             for (int j = 0; j < numClasses; j++) {
-                this.weights[i][j] = (rand.nextDouble() - 0.5) / 50.0;
+                this.weights[j * numFeatures + i] = (rand.nextDouble() - 0.5) / 50.0;
+            }
+        }
+    }
+
+    /**
+     * Makes the model work on scaled features. Must be called before train(), with a scaler that has already
+     * seen the data (e.g. one filled by DataLoader while loading). Raw-valued features such as Age (~20) next
+     * to CGPA (~3) make SGD converge very slowly; standardized features need far fewer epochs.
+     * The model keeps a copy of the scaler's statistics, taken here and again by every train() call; rows the
+     * scaler sees afterwards do not change how the model scales.
+     * @param scaler The fitted scaler, or null for no scaling.
+     */
+    public void setScaler(FeatureScaler scaler) {
+        this.scaler = scaler;
+        snapshotScaler();
+    }
+
+    public FeatureScaler getScaler() {
+        return scaler;
+    }
+
+    /**
+     * Chooses how train() uses the cores. SEQUENTIAL (the default) is the plain single-threaded SGD.
+     * @param trainingMode The training mode for the following train() calls.
+     */
+    public void setTrainingMode(TrainingMode trainingMode) {
+        this.trainingMode = trainingMode;
+    }
+
+    public TrainingMode getTrainingMode() {
+        return trainingMode;
+    }
+
+    /**
+     * @param threads The number of worker threads for HOGWILD and SYNCHRONOUS_MINIBATCH (default: one per core).
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Training needs at least one thread.");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Sets the batch size of SYNCHRONOUS_MINIBATCH. Every step moves the weights by the learning rate times the
+     * batch's average gradient, so this mode usually wants a larger learning rate than per-sample SGD.
+     * @param batchSize The number of rows per gradient step (default 1024).
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be at least 1.");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Chooses the optimizer for the following train() calls. SGD (the default) runs a fixed number of epochs
+     * (or fewer, with early stopping); LBFGS treats 'epochs' as its maximum number of iterations.
+     * @param solver The optimizer.
+     */
+    public void setSolver(Solver solver) {
+        this.solver = solver;
+    }
+
+    public Solver getSolver() {
+        return solver;
+    }
+
+    /**
+     * Sets how the SGD learning rate changes over the epochs (CONSTANT by default).
+     * @param schedule The schedule.
+     * @param decay For INVERSE_TIME, how fast the rate shrinks: epoch e uses learningRate / (1 + decay * e).
+     *              Ignored by the other schedules.
+     */
+    public void setLearningRateSchedule(LearningRateSchedule schedule, double decay) {
+        if (decay < 0) {
+            throw new IllegalArgumentException("The learning rate decay can not be negative.");
+        }
+        this.schedule = schedule;
+        this.learningRateDecay = decay;
+    }
+
+    /**
+     * Stops training early once the loss has stopped moving: when 'patience' epochs (or LBFGS iterations) in a
+     * row failed to lower the best loss so far by at least 'tolerance'. Off by default, so train() runs all
+     * epochs. The ADAPTIVE schedule uses the same rule to decide when to cut the learning rate.
+     * @param tolerance The smallest improvement of the mean loss that counts as progress, e.g. 1e-4.
+     * @param patience How many epochs without progress are allowed before stopping.
+     */
+    public void setEarlyStopping(double tolerance, int patience) {
+        if (tolerance < 0 || patience < 1) {
+            throw new IllegalArgumentException("Early stopping needs a tolerance >= 0 and a patience of at least 1.");
+        }
+        this.earlyStopping = true;
+        this.tolerance = tolerance;
+        this.patience = patience;
+    }
+
+    /**
+     * @return The mean training loss after every epoch (SGD) or iteration (LBFGS) of the last train() call.
+     *         For SGD it is the progressive loss: each row's loss is taken just before the model learns from it,
+     *         so it costs no extra pass over the data.
+     */
+    public double[] getLossHistory() {
+        return lossHistory.clone();
+    }
+
+    /**
+     * @return How many times the last train() call went through the whole training set.
+     */
+    public int getDataPasses() {
+        return dataPasses;
+    }
+
+    /**
+     * The average cross-entropy loss, -log(probability of the true class), of the model over a dataset.
+     * @param data The rows to evaluate (raw features; the model's scaler is applied).
+     * @return The mean loss per row (0 for an empty dataset).
+     * @throws IllegalArgumentException If a label is not between 0 and numClasses - 1.
+     */
+    public double loss(Dataset data) {
+        checkLabels(data);
+        double[] block = new double[Math.min(ROW_BLOCK, data.size()) * numFeatures];
+        double[] probabilities = scratch().scores;
+        double total = 0.0;
+        for (int blockStart = 0; blockStart < data.size(); blockStart += ROW_BLOCK) {
+            int blockEnd = Math.min(blockStart + ROW_BLOCK, data.size());
+            copyBlock(data, blockStart, blockEnd, block);
+            for (int row = blockStart, offset = 0; row < blockEnd; row++, offset += numFeatures) {
+                calculateScores(block, offset, probabilities);
+                softmax(probabilities);
+                total -= Math.log(Math.max(probabilities[data.getLabel(row)], Double.MIN_NORMAL));
             }
         }
+        return data.isEmpty() ? 0.0 : total / data.size();
     }
 
     /**
      * The main training method using Stochastic Gradient Descent.
      * @param trainingData The list of DataPoints to learn from.
      */
-    public void train(List<DataPoint> trainingData) { // <-- FIX 1: Return type is void
-        int numFeatures = weights.length;
-        int numClasses = biases.length;
+    public void train(List<DataPoint> trainingData) {
+        train(Dataset.fromDataPoints(trainingData));
+    }
 
-        for (int epoch = 0; epoch < epochs; epoch++) {
-            for (DataPoint dp : trainingData) {
-                double[] features = dp.getFeatures();
+    /**
+     * The same Stochastic Gradient Descent, reading the rows straight from a columnar Dataset.
+     * @param trainingData The dataset (or view) to learn from, visited in row order every epoch.
+     * @throws IllegalArgumentException If a label is not between 0 and numClasses - 1 (checked before training).
+     */
+    public void train(Dataset trainingData) {
+        lossHistory = new double[0];
+        dataPasses = 0;
+        snapshotScaler();
+        if (trainingData.isEmpty()) {
+            return;
+        }
+        checkLabels(trainingData);
 
-                // Step 1: Forward Pass
-                double[] scores = calculateScores(features);
-                double[] probabilities = softmax(scores);
+        // A pool of exactly 'threads' workers, so the thread count does not depend on the common pool.
+        boolean parallel = solver == Solver.LBFGS || trainingMode != TrainingMode.SEQUENTIAL;
+        ForkJoinPool pool = parallel ? new ForkJoinPool(threads) : null;
+        try {
+            if (solver == Solver.LBFGS) {
+                trainLbfgs(trainingData, pool);
+            } else {
+                runEpochs(trainingData.size(), rate -> {
+                    if (trainingMode == TrainingMode.SEQUENTIAL) {
+                        return sgdRange(trainingData, 0, trainingData.size(), rate);
+                    } else if (trainingMode == TrainingMode.HOGWILD) {
+                        return hogwildEpoch(trainingData, pool, rate);
+                    }
+                    return synchronousEpoch(trainingData, pool, rate);
+                });
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
 
-                // Step 2: Calculate Error
-                double[] errorSignal = new double[numClasses];
-                int trueLabel = dp.getLabel();
-                for (int j = 0; j < numClasses; j++) {
-                    double y_true = (j == trueLabel) ? 1.0 : 0.0;
-                    errorSignal[j] = probabilities[j] - y_true;
-                }
+    /**
+     * Trains on a row file that may be much larger than the memory, streaming through it once per epoch in file
+     * order. Only a block of the file is read at a time, so the heap use does not depend on the number of rows.
+     * Runs per-sample SGD with the learning rate schedule and early stopping settings; the training mode is not
+     * used.
+     * @param trainingData The open row file.
+     * @throws IllegalStateException If the solver is LBFGS (checked before any row is read).
+     * @throws IllegalArgumentException At the first row whose label is not between 0 and numClasses - 1.
+     */
+    public void train(RowFile trainingData) {
+        trainOutOfCore(trainingData, null);
+    }
 
-                // Step 3 & 4: Update Parameters
-                for (int j = 0; j < numClasses; j++) {
-                    biases[j] -= learningRate * errorSignal[j];
-                }
-                for (int i = 0; i < numFeatures; i++) {
-                    for (int j = 0; j < numClasses; j++) {
-                        weights[i][j] -= learningRate * features[i] * errorSignal[j];
-                    }
-                }
+    /**
+     * The same as train(RowFile), but every epoch visits the rows in a new shuffled-block order (blocks in a
+     * random order, rows in a random order within each block), which usually helps SGD when the file is sorted.
+     * @param trainingData The open row file.
+     * @param shuffleSeed The seed of the shuffled orders, so a run can be repeated.
+     * @throws IllegalStateException If the solver is LBFGS (checked before any row is read).
+     */
+    public void train(RowFile trainingData, long shuffleSeed) {
+        trainOutOfCore(trainingData, new Random(shuffleSeed));
+    }
+
+    /**
+     * Updates the current weights and biases with one pass of per-sample SGD over a mini-batch of new rows, at
+     * the constructor's learning rate, without starting over. The cost depends only on the size of the batch, so
+     * a model can follow a stream of new data (e.g. from DataLoader.follow()) without retraining on the history.
+     * The scaler (if any) is not refitted: it keeps the statistics of the data it was fitted on.
+     * @param batch The new rows (raw features; the model's scaler is applied).
+     * @return The batch's mean loss, each row's loss taken just before the model learned from it.
+     * @throws IllegalArgumentException If a label is not between 0 and numClasses - 1 (checked before any update).
+     */
+    public double partialFit(Dataset batch) {
+        if (batch.isEmpty()) {
+            return 0.0;
+        }
+        checkLabels(batch);
+        return sgdRange(batch, 0, batch.size(), learningRate) / batch.size();
+    }
+
+    public double partialFit(List<DataPoint> batch) {
+        return partialFit(Dataset.fromDataPoints(batch));
+    }
+
+    /**
+     * The same as partialFit(Dataset), for rows that arrive one at a time. Reads the iterator to its end.
+     * @param rows The new rows (raw features; the model's scaler is applied).
+     * @return The mean loss of the rows, each taken just before the model learned from it.
+     * @throws IllegalArgumentException At the first row whose label is not between 0 and numClasses - 1 (the rows
+     *                                  before it have already been learned from).
+     */
+    public double partialFit(Iterator<DataPoint> rows) {
+        double[] features = new double[numFeatures];
+        double[] scores = new double[numClasses];
+        double loss = 0.0;
+        long count = 0;
+        while (rows.hasNext()) {
+            DataPoint row = rows.next();
+            checkLabel(row.getLabel(), count);
+            if (trainedScaler != null) {
+                trainedScaler.transform(row.getFeatures(), features);
+            } else {
+                System.arraycopy(row.getFeatures(), 0, features, 0, numFeatures);
             }
+            loss += sgdStep(features, 0, row.getLabel(), scores, learningRate);
+            count++;
         }
+        return count == 0 ? 0.0 : loss / count;
     }
 
     /**
@@ -71,11 +401,39 @@ public class LogisticRegression {
      * @return The predicted class index (0, 1, or 2).
      */
     public int predict(DataPoint dataPoint) {
+        return predict(dataPoint.getFeatures());
+    }
+
+    /**
+     * Predicts the class of one row of a dataset.
+     * @param data The dataset holding the row.
+     * @param row The row number within that dataset.
+     * @return The predicted class index.
+     */
+    public int predict(Dataset data, int row) {
+        double[] features = scratch().features;
+        data.copyRow(row, features);
+        return predict(features);
+    }
+
+    /**
+     * Predicts the class of a single feature vector.
+     * @param features The features, in the same order as the training data.
+     * @return The predicted class index.
+     */
+    public int predict(double[] features) {
+        Scratch buffers = scratch();
+        if (trainedScaler != null) {
+            trainedScaler.transform(features, buffers.features);
+            features = buffers.features;
+        }
+
         // --- Step 1: Calculate the raw scores (Z) for each class ---
-        double[] scores = calculateScores(dataPoint.getFeatures()); // <-- FIX 3: Re-use helper method
+        double[] probabilities = buffers.scores;
+        calculateScores(features, 0, probabilities);
 
         // --- Step 2: Convert scores to probabilities (P) using softmax ---
-        double[] probabilities = softmax(scores);
+        softmax(probabilities);
 
         // --- Step 3: Find the class with the highest probability ---
         int bestClass = -1;
@@ -93,25 +451,437 @@ public class LogisticRegression {
     // HELPER METHODS
     // =================================================================
 
+    private void trainOutOfCore(RowFile trainingData, Random shuffle) {
+        if (solver == Solver.LBFGS) {
+            throw new IllegalStateException("Out-of-core training only supports the SGD solver.");
+        }
+        lossHistory = new double[0];
+        dataPasses = 0;
+        snapshotScaler();
+        if (trainingData.getRowCount() == 0) {
+            return;
+        }
+        runEpochs(trainingData.getRowCount(), rate -> {
+            RowFile.Pass pass = trainingData.pass(shuffle);
+            double[] features = new double[numFeatures];
+            double[] scores = new double[numClasses];
+            double loss = 0.0;
+            while (pass.next()) {
+                pass.copyFeatures(features);
+                if (trainedScaler != null) {
+                    trainedScaler.transform(features, features);
+                }
+                // The file is only read here, so its labels are checked as they stream past.
+                int label = pass.getLabel();
+                checkLabel(label, pass.getRow());
+                loss += sgdStep(features, 0, label, scores, rate);
+            }
+            return loss;
+        });
+    }
+
+    // One SGD epoch at the given learning rate; returns the summed (progressive) loss of its rows.
+    private interface Epoch {
+        double run(double rate);
+    }
+
+    // The epoch loop of the SGD solver, with the learning rate schedule and early stopping.
+    private void runEpochs(long numRows, Epoch epochRunner) {
+        double[] history = new double[epochs];
+        StallCounter stalls = new StallCounter(tolerance);
+        double rate = learningRate;
+        int rateCuts = 0;
+        int epoch = 0;
+        while (epoch < epochs) {
+            if (schedule == LearningRateSchedule.INVERSE_TIME) {
+                rate = learningRate / (1 + learningRateDecay * epoch);
+            }
+            history[epoch++] = epochRunner.run(rate) / numRows;
+            dataPasses++;
+
+            if (stalls.update(history[epoch - 1]) >= patience) {
+                if (schedule == LearningRateSchedule.ADAPTIVE) {
+                    if (++rateCuts > MAX_RATE_CUTS) {
+                        break;
+                    }
+                    rate /= 5;
+                    stalls.reset();
+                } else if (earlyStopping) {
+                    break;
+                }
+            }
+        }
+        lossHistory = Arrays.copyOf(history, epoch);
+    }
+
+    // One epoch in which each thread runs per-sample SGD over its own slice of the rows, all on the same weights.
+    // Returns the summed progressive loss.
+    private double hogwildEpoch(Dataset trainingData, ForkJoinPool pool, double rate) {
+        int numRows = trainingData.size();
+        List<ForkJoinTask<Double>> slices = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int from = (int) ((long) numRows * t / threads);
+            final int to = (int) ((long) numRows * (t + 1) / threads);
+            slices.add(ForkJoinTask.adapt(() -> sgdRange(trainingData, from, to, rate)));
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(slices)));
+        double loss = 0.0;
+        for (ForkJoinTask<Double> slice : slices) {
+            loss += slice.join();
+        }
+        return loss;
+    }
+
+    // One epoch of mini-batches: each batch gradient is computed in parallel with fixed weights, and its average
+    // is applied in one step. Returns the summed loss of every batch before its step.
+    private double synchronousEpoch(Dataset trainingData, ForkJoinPool pool, double rate) {
+        int numRows = trainingData.size();
+        double[][] gradients = new double[(batchSize + GRADIENT_CHUNK - 1) / GRADIENT_CHUNK][gradientLength()];
+        double loss = 0.0;
+        for (int batchStart = 0; batchStart < numRows; batchStart += batchSize) {
+            int batchEnd = Math.min(batchStart + batchSize, numRows);
+            double[] total = batchGradient(trainingData, batchStart, batchEnd, GRADIENT_CHUNK, gradients, pool);
+            double step = rate / (batchEnd - batchStart);
+            for (int w = 0; w < weights.length; w++) {
+                weights[w] -= step * total[w];
+            }
+            for (int j = 0; j < numClasses; j++) {
+                biases[j] -= step * total[weights.length + j];
+            }
+            loss += total[weights.length + numClasses];
+        }
+        return loss;
+    }
+
+    /**
+     * Full-batch L-BFGS on the mean cross-entropy. Each iteration turns the gradient into a search direction
+     * with the two-loop recursion over the last LBFGS_HISTORY steps, then backtracks along it until the loss
+     * has dropped enough (Armijo condition). Every loss/gradient evaluation is one parallel pass over the data.
+     */
+    private void trainLbfgs(Dataset trainingData, ForkJoinPool pool) {
+        int numRows = trainingData.size();
+        int numParams = weights.length + numClasses;
+        int chunkSize = Math.max(GRADIENT_CHUNK, (numRows + FULL_BATCH_CHUNKS - 1) / FULL_BATCH_CHUNKS);
+        double[][] chunkGradients = new double[(numRows + chunkSize - 1) / chunkSize][gradientLength()];
+
+        double[] x = new double[numParams];
+        System.arraycopy(weights, 0, x, 0, weights.length);
+        System.arraycopy(biases, 0, x, weights.length, numClasses);
+        double[] gradient = new double[numParams];
+        double loss = evaluate(trainingData, x, gradient, chunkSize, chunkGradients, pool);
+
+        // The last steps s = x' - x and gradient changes y = g' - g, in a ring buffer.
+        double[][] s = new double[LBFGS_HISTORY][numParams];
+        double[][] y = new double[LBFGS_HISTORY][numParams];
+        double[] rho = new double[LBFGS_HISTORY];
+        double[] alpha = new double[LBFGS_HISTORY];
+        // The latest step and gradient change, before they are known to be good enough for the ring buffer.
+        double[] stepS = new double[numParams];
+        double[] stepY = new double[numParams];
+        int stored = 0;
+        int newest = -1;
+
+        double[] direction = new double[numParams];
+        double[] nextX = new double[numParams];
+        double[] nextGradient = new double[numParams];
+        double[] history = new double[epochs];
+        StallCounter stalls = new StallCounter(tolerance);
+        int iteration = 0;
+        while (iteration < epochs && maxAbs(gradient) > GRADIENT_TOLERANCE) {
+            // Two-loop recursion: direction = -H * gradient.
+            for (int p = 0; p < numParams; p++) {
+                direction[p] = -gradient[p];
+            }
+            for (int m = 0; m < stored; m++) {
+                int slot = Math.floorMod(newest - m, LBFGS_HISTORY);
+                alpha[slot] = rho[slot] * dot(s[slot], direction);
+                axpy(-alpha[slot], y[slot], direction);
+            }
+            if (stored > 0) {
+                double scale = dot(s[newest], y[newest]) / dot(y[newest], y[newest]);
+                for (int p = 0; p < numParams; p++) {
+                    direction[p] *= scale;
+                }
+            } else {
+                // No curvature known yet: a plain gradient step of length at most 1.
+                double scale = 1.0 / Math.max(1.0, Math.sqrt(dot(gradient, gradient)));
+                for (int p = 0; p < numParams; p++) {
+                    direction[p] *= scale;
+                }
+            }
+            for (int m = stored - 1; m >= 0; m--) {
+                int slot = Math.floorMod(newest - m, LBFGS_HISTORY);
+                double beta = rho[slot] * dot(y[slot], direction);
+                axpy(alpha[slot] - beta, s[slot], direction);
+            }
+            double slope = dot(gradient, direction);
+            if (slope >= 0) {
+                // Not a descent direction (the curvature estimate went stale): start over from the gradient.
+                stored = 0;
+                for (int p = 0; p < numParams; p++) {
+                    direction[p] = -gradient[p];
+                }
+                slope = -dot(gradient, gradient);
+            }
+
+            // Backtracking line search.
+            double step = 1.0;
+            double nextLoss = Double.POSITIVE_INFINITY;
+            for (int tries = 0; tries < MAX_LINE_SEARCH_STEPS; tries++) {
+                for (int p = 0; p < numParams; p++) {
+                    nextX[p] = x[p] + step * direction[p];
+                }
+                nextLoss = evaluate(trainingData, nextX, nextGradient, chunkSize, chunkGradients, pool);
+                if (nextLoss <= loss + 1e-4 * step * slope) {
+                    break;
+                }
+                step *= 0.5;
+            }
+            if (!(nextLoss < loss)) {
+                // No step along the direction helps any more: we are as close to the minimum as we can get.
+                setParameters(x);
+                break;
+            }
+
+            for (int p = 0; p < numParams; p++) {
+                stepS[p] = nextX[p] - x[p];
+                stepY[p] = nextGradient[p] - gradient[p];
+            }
+            double curvature = dot(stepS, stepY);
+            if (curvature > 1e-12) {
+                // Only a pair with positive curvature enters the ring buffer, replacing the oldest one when it
+                // is full. Swapping the arrays keeps the evicted ones as the next scratch buffers.
+                newest = (newest + 1) % LBFGS_HISTORY;
+                double[] evicted = s[newest];
+                s[newest] = stepS;
+                stepS = evicted;
+                evicted = y[newest];
+                y[newest] = stepY;
+                stepY = evicted;
+                rho[newest] = 1.0 / curvature;
+                stored = Math.min(stored + 1, LBFGS_HISTORY);
+            }
+
+            System.arraycopy(nextX, 0, x, 0, numParams);
+            System.arraycopy(nextGradient, 0, gradient, 0, numParams);
+            loss = nextLoss;
+            history[iteration++] = loss;
+            if (earlyStopping && stalls.update(loss) >= patience) {
+                break;
+            }
+        }
+        lossHistory = Arrays.copyOf(history, iteration);
+    }
+
+    // Loads the parameters x (weights, then biases) into the model and returns its mean loss over the data;
+    // the mean gradient goes into 'gradient'. One pass over the data.
+    private double evaluate(Dataset trainingData, double[] x, double[] gradient, int chunkSize,
+                            double[][] chunkGradients, ForkJoinPool pool) {
+        setParameters(x);
+        int numRows = trainingData.size();
+        double[] total = batchGradient(trainingData, 0, numRows, chunkSize, chunkGradients, pool);
+        dataPasses++;
+        for (int p = 0; p < gradient.length; p++) {
+            gradient[p] = total[p] / numRows;
+        }
+        return total[gradient.length] / numRows;
+    }
+
+    private void setParameters(double[] x) {
+        System.arraycopy(x, 0, weights, 0, weights.length);
+        System.arraycopy(x, weights.length, biases, 0, numClasses);
+    }
+
+    // Sums the gradients and losses of rows [from, to) with fixed weights, computing chunks of 'chunkSize' rows in
+    // parallel into gradients[0], gradients[1], ... The chunk sums are added up in chunk order, so the thread count
+    // does not change the result. Returns gradients[0], which then holds the total.
+    private double[] batchGradient(Dataset trainingData, int from, int to, int chunkSize, double[][] gradients,
+                                   ForkJoinPool pool) {
+        List<ForkJoinTask<?>> chunks = new ArrayList<>();
+        for (int chunkStart = from; chunkStart < to; chunkStart += chunkSize) {
+            final int chunkFrom = chunkStart;
+            final int chunkTo = Math.min(chunkStart + chunkSize, to);
+            final double[] gradient = gradients[chunks.size()];
+            chunks.add(ForkJoinTask.adapt(() -> accumulateGradient(trainingData, chunkFrom, chunkTo, gradient)));
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(chunks)));
+
+        double[] total = gradients[0];
+        for (int c = 1; c < chunks.size(); c++) {
+            for (int g = 0; g < total.length; g++) {
+                total[g] += gradients[c][g];
+            }
+        }
+        return total;
+    }
+
+    // The weight gradients (in the layout of 'weights'), then the bias gradients, then the summed loss.
+    private int gradientLength() {
+        return weights.length + numClasses + 1;
+    }
+
+    // Per-sample SGD over rows [from, to), in order. Allocates its two buffers once, nothing per sample.
+    // Returns the summed loss of the rows, each taken just before its update.
+    private double sgdRange(Dataset trainingData, int from, int to, double rate) {
+        double[] block = new double[Math.min(ROW_BLOCK, to - from) * numFeatures];
+        double[] scores = new double[numClasses];
+        double loss = 0.0;
+        for (int blockStart = from; blockStart < to; blockStart += ROW_BLOCK) {
+            int blockEnd = Math.min(blockStart + ROW_BLOCK, to);
+            copyBlock(trainingData, blockStart, blockEnd, block);
+            for (int row = blockStart, offset = 0; row < blockEnd; row++, offset += numFeatures) {
+                loss += sgdStep(block, offset, trainingData.getLabel(row), scores, rate);
+            }
+        }
+        return loss;
+    }
+
+    // Copies rows [from, to) of a dataset into 'block', one after another, and scales them in place.
+    private void copyBlock(Dataset data, int from, int to, double[] block) {
+        data.copyRows(from, to, block);
+        if (trainedScaler != null) {
+            trainedScaler.transformRows(block, to - from);
+        }
+    }
+
+    // Takes the copy of the caller's scaler that the model scales with.
+    private void snapshotScaler() {
+        trainedScaler = scaler == null ? null : scaler.copy();
+    }
+
+    // Checks every label of a dataset before training, so a bad one is reported with its row instead of
+    // failing deep inside the kernel (possibly on a worker thread).
+    private void checkLabels(Dataset data) {
+        for (int row = 0; row < data.size(); row++) {
+            checkLabel(data.getLabel(row), row);
+        }
+    }
+
+    private void checkLabel(int label, long row) {
+        if (label < 0 || label >= numClasses) {
+            throw new IllegalArgumentException("Row " + row + " has label " + label
+                    + ", but the model only has classes 0 to " + (numClasses - 1) + ".");
+        }
+    }
+
+    /**
+     * One SGD step on one (already scaled) sample, in a single pass over the model:
+     * forward pass and softmax into 'scores', then for every class its error signal E = P - Y and the update
+     * of its bias and its (contiguous) row of weights.
+     * @param start Where the sample's features start in 'features'.
+     * @return The sample's loss before the update.
+     */
+    private double sgdStep(double[] features, int start, int trueLabel, double[] scores, double rate) {
+        // Step 1: Forward Pass
+        calculateScores(features, start, scores);
+        softmax(scores);
+        double loss = -Math.log(Math.max(scores[trueLabel], Double.MIN_NORMAL));
+
+        // Step 2 - 4: Error signal, gradients and update, class by class
+        for (int j = 0, offset = 0; j < numClasses; j++, offset += numFeatures) {
+            double error = scores[j] - ((j == trueLabel) ? 1.0 : 0.0);
+            double step = rate * error;
+            biases[j] -= step;
+            for (int i = 0; i < numFeatures; i++) {
+                weights[offset + i] -= step * features[start + i];
+            }
+        }
+        return loss;
+    }
+
+    // Sums the loss gradients and losses of rows [from, to) into 'gradient' (which is overwritten, see
+    // gradientLength()), without changing the model.
+    private void accumulateGradient(Dataset trainingData, int from, int to, double[] gradient) {
+        Arrays.fill(gradient, 0.0);
+        double[] block = new double[Math.min(ROW_BLOCK, to - from) * numFeatures];
+        double[] probabilities = new double[numClasses];
+        for (int blockStart = from; blockStart < to; blockStart += ROW_BLOCK) {
+            int blockEnd = Math.min(blockStart + ROW_BLOCK, to);
+            copyBlock(trainingData, blockStart, blockEnd, block);
+            for (int row = blockStart, start = 0; row < blockEnd; row++, start += numFeatures) {
+                calculateScores(block, start, probabilities);
+                softmax(probabilities);
+                int trueLabel = trainingData.getLabel(row);
+                for (int j = 0, offset = 0; j < numClasses; j++, offset += numFeatures) {
+                    double error = probabilities[j] - ((j == trueLabel) ? 1.0 : 0.0);
+                    for (int i = 0; i < numFeatures; i++) {
+                        gradient[offset + i] += block[start + i] * error;
+                    }
+                    gradient[weights.length + j] += error;
+                }
+                gradient[weights.length + numClasses] -= Math.log(Math.max(probabilities[trueLabel],
+                        Double.MIN_NORMAL));
+            }
+        }
+    }
+
+    private static double dot(double[] a, double[] b) {
+        double sum = 0.0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    // y += a * x
+    private static void axpy(double a, double[] x, double[] y) {
+        for (int i = 0; i < x.length; i++) {
+            y[i] += a * x[i];
+        }
+    }
+
+    private static double maxAbs(double[] values) {
+        double max = 0.0;
+        for (double value : values) {
+            max = Math.max(max, Math.abs(value));
+        }
+        return max;
+    }
+
+    // Counts the epochs in a row whose loss failed to beat the best loss so far by at least 'tolerance'.
+    private static class StallCounter {
+        private final double tolerance;
+        private double bestLoss = Double.POSITIVE_INFINITY;
+        private int stalledEpochs;
+
+        StallCounter(double tolerance) {
+            this.tolerance = tolerance;
+        }
+
+        // Records an epoch's loss and returns the number of stalled epochs in a row.
+        int update(double loss) {
+            if (loss < bestLoss - tolerance) {
+                stalledEpochs = 0;
+            } else {
+                stalledEpochs++;
+            }
+            bestLoss = Math.min(bestLoss, loss);
+            return stalledEpochs;
+        }
+
+        void reset() {
+            stalledEpochs = 0;
+        }
+    }
+
     /**
      * A private helper to calculate the raw scores. (Z = X • W + b)
+     * The features, from features[start] on, must already be scaled. The scores are written into 'scores'.
      */
-    private double[] calculateScores(double[] features) {
-        double[] scores = new double[biases.length];
-        for (int j = 0; j < biases.length; j++) {
-            scores[j] = biases[j];
-            for (int i = 0; i < features.length; i++) {
-                scores[j] += features[i] * weights[i][j];
+    private void calculateScores(double[] features, int start, double[] scores) {
+        for (int j = 0, offset = 0; j < numClasses; j++, offset += numFeatures) {
+            double score = biases[j];
+            for (int i = 0; i < numFeatures; i++) {
+                score += features[start + i] * weights[offset + i];
             }
+            scores[j] = score;
         }
-        return scores;
     }
 
     /**
-     * A helper method to compute the Softmax function.
+     * A helper method to compute the Softmax function. Turns the scores into probabilities in place.
      */
-    private double[] softmax(double[] scores) {
-        double[] probabilities = new double[scores.length];
+    private static void softmax(double[] scores) {
         double maxScore = scores[0];
         for (int i = 1; i < scores.length; i++) {
             if (scores[i] > maxScore) {
@@ -120,12 +890,21 @@ public class LogisticRegression {
         }
         double sum = 0.0;
         for (int i = 0; i < scores.length; i++) {
-            probabilities[i] = Math.exp(scores[i] - maxScore);
-            sum += probabilities[i];
+            scores[i] = Math.exp(scores[i] - maxScore);
+            sum += scores[i];
         }
-        for (int i = 0; i < probabilities.length; i++) {
-            probabilities[i] /= sum;
+        double inverse = 1.0 / sum;
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] *= inverse;
+        }
+    }
+
+    private Scratch scratch() {
+        Scratch buffers = scratch.get();
+        if (buffers == null) {
+            buffers = new Scratch(numFeatures, numClasses);
+            scratch.set(buffers);
         }
-        return probabilities;
+        return buffers;
     }
-}
\ No newline at end of file
+}
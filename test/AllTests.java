@@ -0,0 +1,56 @@
+import testing.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Runs every test class and exits with status 1 if any test fails, so a build script can stop on it.
+ * The project targets Java 21 (the language level in .idea/misc.xml). Run the tests with a JDK 21 or newer, from
+ * the project root, where they find Processed.csv:
+ *
+ *     javac -d out $(find src test -name '*.java') && java -cp out AllTests
+ */
+public class AllTests {
+
+    private static final Class<?>[] TEST_CLASSES = {
+            data.CsvTokenizerTest.class,
+            data.FeatureCacheTest.class,
+            data.RowFileTest.class,
+            models.decisionTree.DecisionTreeTest.class,
+            models.decisionTree.TreeCodeGeneratorTest.class,
+            models.knn.KNNTest.class,
+            models.logisticRegression.LogisticRegressionTest.class,
+    };
+
+    public static void main(String[] args) throws ReflectiveOperationException {
+        int passed = 0;
+        List<String> failures = new ArrayList<>();
+        for (Class<?> testClass : TEST_CLASSES) {
+            Method[] methods = testClass.getMethods();
+            Arrays.sort(methods, Comparator.comparing(Method::getName));
+            for (Method method : methods) {
+                if (!method.isAnnotationPresent(Test.class)) {
+                    continue;
+                }
+                String name = testClass.getSimpleName() + "." + method.getName();
+                Object instance = testClass.getDeclaredConstructor().newInstance();
+                try {
+                    method.invoke(instance);
+                    passed++;
+                    System.out.println("PASS " + name);
+                } catch (InvocationTargetException e) {
+                    failures.add(name);
+                    System.out.println("FAIL " + name);
+                    e.getCause().printStackTrace(System.out);
+                }
+            }
+        }
+        System.out.println(passed + " passed, " + failures.size() + " failed"
+                + (failures.isEmpty() ? "" : ": " + failures));
+        System.exit(failures.isEmpty() ? 0 : 1);
+    }
+}
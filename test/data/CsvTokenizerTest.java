@@ -0,0 +1,101 @@
+package data;
+
+import testing.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static testing.Assert.assertEquals;
+import static testing.Assert.assertThrows;
+import static testing.Assert.assertTrue;
+
+/**
+ * Checks CsvTokenizer against the parsing it replaced: a regex split of every line, then
+ * {@code value.replace("\"", "")} for text and {@code Double.parseDouble(value.replace("\"", "").trim())} for
+ * numbers.
+ */
+public class CsvTokenizerTest {
+
+    private static final String OLD_SPLIT = ",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)";
+
+    @Test
+    public void matchesOldParsingOnProcessedCsv() throws IOException {
+        String csv = Files.readString(Path.of("Processed.csv"), StandardCharsets.UTF_8);
+        int rows = assertSameAsOldParsing(csv);
+        assertTrue(rows > 1000, "Processed.csv should have more than 1000 rows, found " + rows);
+    }
+
+    @Test
+    public void matchesOldParsingOnTrickyFields() throws IOException {
+        String csv = String.join("\n",
+                "5,\"7\", 8 ,\" 9 \",\"1,5\",\"3\"4,-\"2\"",
+                ",,\"\", ,\" \"",
+                "+3,-2.5,-,+,.5,5.,.,-0,+0.0,--1,+-1",
+                "1e3,-1.5E-2,1E400,1e-400,0x10,5d,5f,NaN,-Infinity,1_000",
+                "12345678901234567890,9007199254740993,0.1234567890123456789012345,1.00000000000000000000001",
+                "é5,5é,é, 5,5 ,１,½,café 5",
+                "\t6\t,\u00017,1 2,- 5,5 \"x\",2.745,3.50 - 3.99");
+        assertEquals(7, assertSameAsOldParsing(csv), "rows");
+    }
+
+    @Test
+    public void rejectsNonAsciiAroundNumbers() throws IOException {
+        CsvTokenizer tokenizer = new CsvTokenizer(utf8("é5,5é, 5,é 5\n"));
+        assertTrue(tokenizer.nextRow(), "a row");
+        for (int field = 0; field < tokenizer.getFieldCount(); field++) {
+            int index = field;
+            assertThrows(NumberFormatException.class, () -> tokenizer.getDouble(index),
+                    "field \"" + tokenizer.getField(field) + "\"");
+        }
+    }
+
+    // Reads the CSV (header included) both ways and compares every field as text and as a number.
+    // Returns the number of rows.
+    private static int assertSameAsOldParsing(String csv) throws IOException {
+        CsvTokenizer tokenizer = new CsvTokenizer(utf8(csv), 64);
+        BufferedReader lines = new BufferedReader(new StringReader(csv));
+        int rows = 0;
+        String line;
+        while ((line = lines.readLine()) != null) {
+            assertTrue(tokenizer.nextRow(), "The tokenizer should have row " + rows);
+            String[] values = line.split(OLD_SPLIT, -1);
+            assertEquals(values.length, tokenizer.getFieldCount(), "Fields in row " + rows);
+            for (int field = 0; field < values.length; field++) {
+                String where = "row " + rows + ", field " + field + " (" + values[field] + ")";
+                String text = values[field].replace("\"", "");
+                assertEquals(text, tokenizer.getField(field), "Text of " + where);
+                assertEquals(oldNumber(text), newNumber(tokenizer, field), "Number in " + where);
+            }
+            rows++;
+        }
+        assertTrue(!tokenizer.nextRow(), "The tokenizer should have no row after " + rows);
+        return rows;
+    }
+
+    // The old parse, or the name of the exception it threw.
+    private static Object oldNumber(String text) {
+        try {
+            return Double.doubleToLongBits(Double.parseDouble(text.trim()));
+        } catch (NumberFormatException e) {
+            return e.getClass().getSimpleName();
+        }
+    }
+
+    private static Object newNumber(CsvTokenizer tokenizer, int field) {
+        try {
+            return Double.doubleToLongBits(tokenizer.getDouble(field));
+        } catch (NumberFormatException e) {
+            return e.getClass().getSimpleName();
+        }
+    }
+
+    private static InputStream utf8(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
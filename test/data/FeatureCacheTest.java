@@ -0,0 +1,84 @@
+package data;
+
+import testing.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static testing.Assert.assertArrayEquals;
+import static testing.Assert.assertEquals;
+import static testing.Assert.assertTrue;
+
+/**
+ * Checks that a dataset read back from a FeatureCache file is bit for bit the dataset that was written, and that
+ * a cache of another schema or a damaged cache is not used.
+ */
+public class FeatureCacheTest {
+
+    private static final long SCHEMA = FeatureCache.schemaHash("test schema");
+
+    @Test
+    public void roundTripsProcessedCsv() throws IOException {
+        Dataset data = Dataset.fromDataPoints(new DataLoader().loadData("Processed.csv"));
+        assertSameData(data, roundTrip(data), "Processed.csv");
+    }
+
+    @Test
+    public void roundTripsSpecialValuesAndViews() throws IOException {
+        Dataset data = Dataset.fromDataPoints(List.of(
+                new DataPoint(new double[] {Double.NaN, -0.0, 0.0}, 0),
+                new DataPoint(new double[] {Double.NEGATIVE_INFINITY, Double.MIN_VALUE, Double.MAX_VALUE}, -1),
+                new DataPoint(new double[] {Double.POSITIVE_INFINITY, 1e-310, -1.5}, 2)));
+        assertSameData(data, roundTrip(data), "special values");
+        Dataset view = data.subset(new int[] {2, 0});
+        assertSameData(view, roundTrip(view), "view");
+        assertSameData(data, roundTrip(data.toOffHeap()), "off-heap");
+        Dataset empty = data.subset(new int[0]);
+        assertSameData(empty, roundTrip(empty), "empty");
+    }
+
+    @Test
+    public void ignoresCachesOfOtherSchemasAndDamagedCaches() throws IOException {
+        Dataset data = Dataset.fromDataPoints(List.of(new DataPoint(new double[] {1, 2}, 1)));
+        Path file = Files.createTempFile("features", ".cache");
+        try {
+            FeatureCache.write(file, data, SCHEMA);
+            assertTrue(FeatureCache.read(file, SCHEMA + 1) == null, "A cache of another schema should be ignored");
+            byte[] bytes = Files.readAllBytes(file);
+            Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+            assertTrue(FeatureCache.read(file, SCHEMA) == null, "A truncated cache should be ignored");
+            Files.delete(file);
+            assertTrue(FeatureCache.read(file, SCHEMA) == null, "A missing cache should be ignored");
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static Dataset roundTrip(Dataset data) throws IOException {
+        Path file = Files.createTempFile("features", ".cache");
+        try {
+            FeatureCache.write(file, data, SCHEMA);
+            Dataset read = FeatureCache.read(file, SCHEMA);
+            assertTrue(read != null, "The cache should be read back");
+            return read;
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void assertSameData(Dataset expected, Dataset actual, String what) {
+        assertEquals(expected.size(), actual.size(), what + ": rows");
+        assertEquals(expected.getFeatureCount(), actual.getFeatureCount(), what + ": features");
+        double[] expectedRow = new double[expected.getFeatureCount()];
+        double[] actualRow = new double[actual.getFeatureCount()];
+        for (int row = 0; row < expected.size(); row++) {
+            expected.copyRow(row, expectedRow);
+            actual.copyRow(row, actualRow);
+            assertArrayEquals(expectedRow, actualRow, what + ": row " + row);
+            assertEquals(expected.getLabel(row), actual.getLabel(row), what + ": label of row " + row);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package data;
+
+import testing.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static testing.Assert.assertArrayEquals;
+import static testing.Assert.assertEquals;
+import static testing.Assert.assertThrows;
+import static testing.Assert.assertTrue;
+
+/**
+ * Checks that a pass over a RowFile gives back exactly the rows that were written: in file order, or shuffled
+ * with every row visited once.
+ */
+public class RowFileTest {
+
+    @Test
+    public void passInFileOrderReturnsProcessedCsv() throws IOException {
+        Dataset data = Dataset.fromDataPoints(new DataLoader().loadData("Processed.csv"));
+        assertRoundTrip(data);
+    }
+
+    @Test
+    public void passesCoverEveryRowOfSeveralBlocks() throws IOException {
+        // Three blocks of 64K rows, the last one partly filled, with values a text format could not round-trip.
+        Random random = new Random(3);
+        double[] specials = {Double.NaN, -0.0, Double.NEGATIVE_INFINITY, Double.MIN_VALUE, Double.MAX_VALUE};
+        double[][] columns = new double[3][150_000];
+        int[] labels = new int[columns[0].length];
+        for (int r = 0; r < labels.length; r++) {
+            columns[0][r] = r;
+            columns[1][r] = random.nextGaussian();
+            columns[2][r] = specials[r % specials.length];
+            labels[r] = random.nextInt(5) - 1;
+        }
+        assertRoundTrip(new Dataset(columns, labels));
+    }
+
+    @Test
+    public void rejectsIncompleteFiles() throws IOException {
+        Dataset data = Dataset.fromDataPoints(new DataLoader().loadData("Processed.csv"));
+        Path file = Files.createTempFile("rows", ".bin");
+        try {
+            RowFile.write(file, data);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(channel.size() - 1);
+            }
+            assertThrows(IOException.class, () -> RowFile.open(file).close(), "A truncated file");
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // Writes the data, then reads it back once in file order and twice shuffled.
+    private static void assertRoundTrip(Dataset data) throws IOException {
+        Path file = Files.createTempFile("rows", ".bin");
+        try {
+            RowFile.write(file, data);
+            try (RowFile rows = RowFile.open(file)) {
+                assertEquals(data.size(), rows.getRowCount(), "rows");
+                assertEquals(data.getFeatureCount(), rows.getFeatureCount(), "features");
+                assertPass(data, rows.pass(null), false);
+                assertPass(data, rows.pass(new Random(1)), true);
+                assertPass(data, rows.pass(new Random(2)), true);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void assertPass(Dataset data, RowFile.Pass pass, boolean shuffled) {
+        boolean[] seen = new boolean[data.size()];
+        double[] expected = new double[data.getFeatureCount()];
+        double[] actual = new double[data.getFeatureCount()];
+        int visited = 0;
+        int outOfOrder = 0;
+        while (pass.next()) {
+            int row = (int) pass.getRow();
+            if (!shuffled) {
+                assertEquals(visited, row, "row in file order");
+            } else if (row != visited) {
+                outOfOrder++;
+            }
+            assertTrue(!seen[row], "row " + row + " should be visited once");
+            seen[row] = true;
+            data.copyRow(row, expected);
+            pass.copyFeatures(actual);
+            assertArrayEquals(expected, actual, "features of row " + row);
+            assertEquals(data.getLabel(row), pass.getLabel(), "label of row " + row);
+            visited++;
+        }
+        assertEquals(data.size(), visited, "rows visited");
+        assertTrue(!shuffled || outOfOrder > 0, "a shuffled pass should not be in file order");
+    }
+}
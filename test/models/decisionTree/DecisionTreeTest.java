@@ -0,0 +1,321 @@
+package models.decisionTree;
+
+import data.DataLoader;
+import data.DataPoint;
+import data.Dataset;
+import testing.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static testing.Assert.assertEquals;
+import static testing.Assert.assertTrue;
+
+/**
+ * Checks the array-based DecisionTree against the list-based tree it replaced (BaselineTree below), and its
+ * faster variants (histogram search, parallel build, views and off-heap data) against the plain exact build.
+ */
+public class DecisionTreeTest {
+
+    @Test
+    public void exactSearchMatchesBaselineOnProcessedCsv() {
+        Dataset data = processedCsv();
+        for (int depth : new int[] {1, 3, 6, 10, 30}) {
+            for (int minSamplesSplit : new int[] {2, 10}) {
+                assertSameTree(new BaselineTree(depth, minSamplesSplit, data.toDataPoints()),
+                        exact(depth, minSamplesSplit, data), data, "depth " + depth + ", split " + minSamplesSplit);
+            }
+        }
+    }
+
+    @Test
+    public void exactSearchMatchesBaselineOnHandBuiltCases() {
+        double nan = Double.NaN;
+        List<Dataset> cases = List.of(
+                // Both features split the classes equally well: the first feature wins.
+                dataset(new double[][] {{1, 1}, {2, 2}, {3, 3}, {4, 4}}, 0, 0, 1, 1),
+                // Two thresholds of one feature tie: the smaller value wins.
+                dataset(new double[][] {{1}, {2}, {3}, {4}, {5}, {6}}, 1, 0, 0, 0, 0, 1),
+                // NaN never goes left, whatever the threshold.
+                dataset(new double[][] {{nan, 0}, {1, nan}, {2, 1}, {nan, 2}, {3, 3}, {4, nan}}, 0, 1, 1, 0, 2, 2),
+                // Labels outside 0..2 count towards the group sizes but never win a vote.
+                dataset(new double[][] {{1}, {1}, {2}, {3}, {3}, {4}}, -1, 0, 7, 2, 2, 1),
+                // Duplicate rows with different labels can not be separated.
+                dataset(new double[][] {{5, 5}, {5, 5}, {5, 5}, {1, 2}}, 0, 1, 1, 2),
+                dataset(new double[][] {{-0.0}, {0.0}, {1e-300}, {-1e300}}, 0, 1, 2, 0),
+                dataset(new double[][] {{7}}, 2),
+                dataset(new double[0][0]));
+        for (int c = 0; c < cases.size(); c++) {
+            Dataset data = cases.get(c);
+            assertSameTree(new BaselineTree(10, 2, data.toDataPoints()), exact(10, 2, data), data, "case " + c);
+        }
+    }
+
+    @Test
+    public void histogramSearchMatchesExactOnLowCardinalityFeatures() {
+        // Every feature of Processed.csv has far fewer than 256 distinct values.
+        Dataset data = processedCsv();
+        for (int depth : new int[] {3, 10, 30}) {
+            DecisionTree histogram = new DecisionTree(depth, 2);
+            histogram.setSplitSearch(DecisionTree.SplitSearch.HISTOGRAM);
+            histogram.train(data);
+            assertSamePredictions(exact(depth, 2, data), histogram, data, "depth " + depth);
+        }
+    }
+
+    @Test
+    public void parallelBuildMatchesSequentialBuild() {
+        // Large enough for both forked subtrees and parallel feature searches.
+        Dataset data = withNoise(processedCsv(), 40_000, new Random(11));
+        for (DecisionTree.SplitSearch search : DecisionTree.SplitSearch.values()) {
+            DecisionTree sequential = new DecisionTree(12, 2);
+            sequential.setSplitSearch(search);
+            sequential.train(data);
+            for (int threads : new int[] {2, 4}) {
+                DecisionTree parallel = new DecisionTree(12, 2);
+                parallel.setSplitSearch(search);
+                parallel.setThreads(threads);
+                parallel.train(data);
+                assertSamePredictions(sequential, parallel, data, search + ", " + threads + " threads");
+            }
+        }
+    }
+
+    @Test
+    public void viewsAndOffHeapDataTrainTheSameTree() {
+        Dataset data = processedCsv();
+        int[] rows = new int[data.size() / 2];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = (i * 7) % data.size();
+        }
+        Dataset view = data.subset(rows);
+        Dataset copy = Dataset.fromDataPoints(view.toDataPoints());
+        for (DecisionTree.SplitSearch search : DecisionTree.SplitSearch.values()) {
+            DecisionTree expected = new DecisionTree(10, 2);
+            expected.setSplitSearch(search);
+            expected.train(copy);
+            for (Dataset trainingData : new Dataset[] {view, view.toOffHeap()}) {
+                DecisionTree tree = new DecisionTree(10, 2);
+                tree.setSplitSearch(search);
+                tree.train(trainingData);
+                assertSamePredictions(expected, tree, data, search.toString());
+                assertSamePredictions(expected, tree, trainingData, search + " on the training data");
+            }
+        }
+    }
+
+    @Test
+    public void pruningAnEmptyTrainingSetKeepsTheSingleLeaf() {
+        Dataset empty = dataset(new double[0][0]);
+        for (DecisionTree.SplitSearch search : DecisionTree.SplitSearch.values()) {
+            DecisionTree tree = new DecisionTree(10, 2);
+            tree.setSplitSearch(search);
+            tree.setCcpAlpha(0.01);
+            tree.train(empty);
+            assertEquals(1, tree.getNodeCount(), search + ": nodes");
+            assertEquals(1, tree.getGrownNodeCount(), search + ": grown nodes");
+            assertEquals(-1, tree.predict(new double[] {1.0, 2.0}), search + ": prediction");
+        }
+    }
+
+    @Test
+    public void pruningOnlyRemovesNodes() {
+        Dataset data = processedCsv();
+        DecisionTree unpruned = exact(30, 2, data);
+        for (double ccpAlpha : new double[] {1e-4, 1e-3, 1e-2, 1.0}) {
+            DecisionTree pruned = new DecisionTree(30, 2);
+            pruned.setCcpAlpha(ccpAlpha);
+            pruned.train(data);
+            assertEquals(unpruned.getNodeCount(), pruned.getGrownNodeCount(), "alpha " + ccpAlpha + ": grown nodes");
+            assertTrue(pruned.getNodeCount() < unpruned.getNodeCount(), "alpha " + ccpAlpha + " should prune");
+        }
+    }
+
+    private static DecisionTree exact(int maxDepth, int minSamplesSplit, Dataset data) {
+        DecisionTree tree = new DecisionTree(maxDepth, minSamplesSplit);
+        tree.train(data);
+        return tree;
+    }
+
+    private static void assertSameTree(BaselineTree baseline, DecisionTree tree, Dataset data, String what) {
+        assertEquals(baseline.nodeCount, tree.getNodeCount(), what + ": node count");
+        for (double[] vector : probes(data)) {
+            assertEquals(baseline.predict(vector), tree.predict(vector), what + ": prediction");
+        }
+    }
+
+    private static void assertSamePredictions(DecisionTree expected, DecisionTree actual, Dataset data, String what) {
+        assertEquals(expected.getNodeCount(), actual.getNodeCount(), what + ": node count");
+        int[] batch = actual.predictBatch(data);
+        for (int row = 0; row < data.size(); row++) {
+            int prediction = expected.predict(data, row);
+            assertEquals(prediction, actual.predict(data, row), what + ": prediction of row " + row);
+            assertEquals(prediction, batch[row], what + ": batch prediction of row " + row);
+        }
+        for (double[] vector : probes(data)) {
+            assertEquals(expected.predict(vector), actual.predict(vector), what + ": prediction");
+        }
+    }
+
+    // Every row of the data, and every row with one feature replaced by NaN.
+    private static List<double[]> probes(Dataset data) {
+        List<double[]> vectors = new ArrayList<>();
+        for (int row = 0; row < data.size(); row++) {
+            for (int missing = -1; missing < data.getFeatureCount(); missing++) {
+                double[] vector = new double[data.getFeatureCount()];
+                data.copyRow(row, vector);
+                if (missing >= 0) {
+                    vector[missing] = Double.NaN;
+                }
+                vectors.add(vector);
+            }
+        }
+        return vectors;
+    }
+
+    private static Dataset processedCsv() {
+        return Dataset.fromDataPoints(new DataLoader().loadData("Processed.csv"));
+    }
+
+    private static Dataset dataset(double[][] rows, int... labels) {
+        List<DataPoint> points = new ArrayList<>();
+        for (int r = 0; r < rows.length; r++) {
+            points.add(new DataPoint(rows[r], labels[r]));
+        }
+        return Dataset.fromDataPoints(points);
+    }
+
+    // Draws rows at random and adds a little noise to every value, so nearly every value is distinct.
+    private static Dataset withNoise(Dataset source, int rows, Random random) {
+        int numFeatures = source.getFeatureCount();
+        double[][] columns = new double[numFeatures][rows];
+        int[] labels = new int[rows];
+        for (int r = 0; r < rows; r++) {
+            int pick = random.nextInt(source.size());
+            for (int f = 0; f < numFeatures; f++) {
+                columns[f][r] = source.getFeature(pick, f) + 0.01 * random.nextGaussian();
+            }
+            labels[r] = source.getLabel(pick);
+        }
+        return new Dataset(columns, labels);
+    }
+
+    /**
+     * The original list-based tree: every candidate split partitions the rows into new lists and computes both
+     * Ginis from scratch. The only change is that the unique values of a feature are tried in increasing order
+     * (the original used HashSet order), which is the tie rule DecisionTree documents: between equal gains,
+     * the first feature and then the smallest value wins.
+     */
+    private static class BaselineTree {
+        private final int maxDepth;
+        private final int minSamplesSplit;
+        private final Node root;
+        private int nodeCount;
+
+        BaselineTree(int maxDepth, int minSamplesSplit, List<DataPoint> data) {
+            this.maxDepth = maxDepth;
+            this.minSamplesSplit = minSamplesSplit;
+            this.root = build(data, 0);
+        }
+
+        int predict(double[] features) {
+            Node node = root;
+            while (!node.isLeaf()) {
+                node = node.getSplitCondition().matches(features) ? node.getLeftChild() : node.getRightChild();
+            }
+            return node.getPrediction();
+        }
+
+        private Node build(List<DataPoint> data, int depth) {
+            nodeCount++;
+            if (depth >= maxDepth || data.size() < minSamplesSplit || isPure(data)) {
+                return new Node(majorityVote(data));
+            }
+            double parentGini = gini(data);
+            double bestGain = 0.0;
+            SplitCondition bestCondition = null;
+            List<DataPoint> bestLeft = null;
+            List<DataPoint> bestRight = null;
+            for (int feature = 0; feature < data.get(0).getFeatureCount(); feature++) {
+                TreeSet<Double> values = new TreeSet<>();
+                for (DataPoint dp : data) {
+                    values.add(dp.getFeature(feature));
+                }
+                for (double value : values) {
+                    SplitCondition condition = new SplitCondition(feature, value);
+                    List<DataPoint> left = new ArrayList<>();
+                    List<DataPoint> right = new ArrayList<>();
+                    for (DataPoint dp : data) {
+                        (condition.matches(dp.getFeatures()) ? left : right).add(dp);
+                    }
+                    if (left.isEmpty() || right.isEmpty()) {
+                        continue;
+                    }
+                    double pLeft = (double) left.size() / data.size();
+                    double gain = parentGini - (pLeft * gini(left) + (1.0 - pLeft) * gini(right));
+                    if (gain > bestGain) {
+                        bestGain = gain;
+                        bestCondition = condition;
+                        bestLeft = left;
+                        bestRight = right;
+                    }
+                }
+            }
+            if (bestCondition == null) {
+                return new Node(majorityVote(data));
+            }
+            return new Node(bestCondition, build(bestLeft, depth + 1), build(bestRight, depth + 1));
+        }
+
+        private static int[] classCounts(List<DataPoint> data) {
+            int[] counts = new int[3];
+            for (DataPoint dp : data) {
+                if (dp.getLabel() >= 0 && dp.getLabel() < counts.length) {
+                    counts[dp.getLabel()]++;
+                }
+            }
+            return counts;
+        }
+
+        private static double gini(List<DataPoint> data) {
+            if (data.isEmpty()) {
+                return 0.0;
+            }
+            double sumOfSquares = 0.0;
+            for (int count : classCounts(data)) {
+                if (count > 0) {
+                    double proportion = (double) count / data.size();
+                    sumOfSquares += proportion * proportion;
+                }
+            }
+            return 1.0 - sumOfSquares;
+        }
+
+        private static int majorityVote(List<DataPoint> data) {
+            if (data.isEmpty()) {
+                return -1;
+            }
+            int[] counts = classCounts(data);
+            int majority = -1;
+            int maxCount = -1;
+            for (int label = 0; label < counts.length; label++) {
+                if (counts[label] > maxCount) {
+                    maxCount = counts[label];
+                    majority = label;
+                }
+            }
+            return majority;
+        }
+
+        private static boolean isPure(List<DataPoint> data) {
+            for (DataPoint dp : data) {
+                if (dp.getLabel() != data.get(0).getLabel()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package models.decisionTree;
+
+import data.DataLoader;
+import data.Dataset;
+import testing.Test;
+
+import java.util.Random;
+
+import static testing.Assert.assertEquals;
+import static testing.Assert.assertTrue;
+
+/**
+ * Checks that a tree turned into code by TreeCodeGenerator predicts exactly like the FlatTree it came from.
+ */
+public class TreeCodeGeneratorTest {
+
+    private static final int[] DEPTHS = {1, 5, 10, 20, 40};
+
+    @Test
+    public void generatedTreesPredictLikeFlatTreesOnProcessedCsv() {
+        Dataset data = Dataset.fromDataPoints(new DataLoader().loadData("Processed.csv"));
+        for (int depth : DEPTHS) {
+            assertSamePredictions(train(depth, DecisionTree.SplitSearch.EXACT, data), data, "depth " + depth);
+        }
+    }
+
+    @Test
+    public void generatedTreesPredictLikeFlatTreesOnContinuousValues() {
+        // Nearly every value is distinct, so the deeper trees are large enough to be split into several methods.
+        Dataset source = Dataset.fromDataPoints(new DataLoader().loadData("Processed.csv"));
+        Dataset data = withNoise(source, 20_000, new Random(7));
+        for (int depth : DEPTHS) {
+            for (DecisionTree.SplitSearch search : DecisionTree.SplitSearch.values()) {
+                assertSamePredictions(train(depth, search, data), data, search + " depth " + depth);
+            }
+        }
+    }
+
+    @Test
+    public void handBuiltTreeWithLargeOperands() {
+        // feature 300 <= 0.5 ? (feature 2 <= -1 ? 1000 : -5) : 32767
+        Node root = new Node(new SplitCondition(300, 0.5),
+                new Node(new SplitCondition(2, -1.0), new Node(1000), new Node(-5)),
+                new Node(Short.MAX_VALUE));
+        FlatTree tree = new FlatTree(root);
+        CompiledTree compiled = TreeCodeGenerator.generate(tree);
+        assertTrue(compiled != null, "The tree should be generated");
+        double[] features = new double[301];
+        for (double a : new double[] {0.0, 0.5, 1.0, Double.NaN}) {
+            for (double b : new double[] {-2.0, -1.0, 0.0, Double.NaN}) {
+                features[300] = a;
+                features[2] = b;
+                assertEquals(tree.predict(features), compiled.predict(features), "features " + a + ", " + b);
+            }
+        }
+    }
+
+    @Test
+    public void operandsOutsideSipushKeepTheFlatTree() {
+        FlatTree largeClass = new FlatTree(new Node(new SplitCondition(0, 0.5), new Node(0), new Node(40_000)));
+        assertTrue(TreeCodeGenerator.generate(largeClass) == null, "A class above 32767 can not be generated");
+        FlatTree largeFeature = new FlatTree(new Node(new SplitCondition(40_000, 0.5), new Node(0), new Node(1)));
+        assertTrue(TreeCodeGenerator.generate(largeFeature) == null, "A feature above 32767 can not be generated");
+    }
+
+    private static DecisionTree train(int depth, DecisionTree.SplitSearch search, Dataset data) {
+        DecisionTree tree = new DecisionTree(depth, 2);
+        tree.setSplitSearch(search);
+        tree.train(data);
+        return tree;
+    }
+
+    // Predicts every row (and every row with one feature replaced by NaN) with the flat tree, then with
+    // generated code, through each of the prediction methods.
+    private static void assertSamePredictions(DecisionTree tree, Dataset data, String what) {
+        int numFeatures = data.getFeatureCount();
+        double[][] vectors = new double[data.size() * (numFeatures + 1)][numFeatures];
+        for (int row = 0; row < data.size(); row++) {
+            for (int v = 0; v <= numFeatures; v++) {
+                double[] vector = vectors[row * (numFeatures + 1) + v];
+                data.copyRow(row, vector);
+                if (v < numFeatures) {
+                    vector[v] = Double.NaN;
+                }
+            }
+        }
+        int[] expected = new int[vectors.length];
+        for (int i = 0; i < vectors.length; i++) {
+            expected[i] = tree.predict(vectors[i]);
+        }
+        int[] expectedBatch = tree.predictBatch(data);
+
+        tree.setGenerateCode(true);
+        assertTrue(tree.isCodeGenerated(), what + ": the tree should be generated");
+        for (int i = 0; i < vectors.length; i++) {
+            assertEquals(expected[i], tree.predict(vectors[i]), what + ", vector " + i);
+        }
+        int[] batch = tree.predictBatch(data);
+        for (int row = 0; row < data.size(); row++) {
+            assertEquals(expectedBatch[row], batch[row], what + ", predictBatch row " + row);
+            assertEquals(expectedBatch[row], tree.predict(data, row), what + ", predict(data, " + row + ")");
+        }
+    }
+
+    private static Dataset withNoise(Dataset source, int rows, Random random) {
+        int numFeatures = source.getFeatureCount();
+        double[][] columns = new double[numFeatures][rows];
+        int[] labels = new int[rows];
+        for (int r = 0; r < rows; r++) {
+            int pick = random.nextInt(source.size());
+            for (int f = 0; f < numFeatures; f++) {
+                columns[f][r] = source.getFeature(pick, f) + 0.01 * random.nextGaussian();
+            }
+            labels[r] = source.getLabel(pick);
+        }
+        return new Dataset(columns, labels);
+    }
+}
@@ -0,0 +1,178 @@
+package models.knn;
+
+import data.DataLoader;
+import data.DataPoint;
+import data.Dataset;
+import data.FeatureScaler;
+import testing.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import static testing.Assert.assertArrayEquals;
+import static testing.Assert.assertEquals;
+import static testing.Assert.assertTrue;
+
+/**
+ * Checks the exact search modes of KNN, with and without collapsed duplicates, against the original
+ * brute-force KNN (BaselineKnn below): a stable sort of all training rows by distance, then a vote among the
+ * first k, where ties between equally distant rows go to the earlier training row.
+ */
+public class KNNTest {
+
+    private static final KNN.SearchMode[] EXACT_MODES = {KNN.SearchMode.BRUTE_FORCE, KNN.SearchMode.KD_TREE};
+
+    @Test
+    public void exactSearchMatchesBaselineOnProcessedCsv() {
+        // Processed.csv has many identical rows, so ties between equally distant rows decide many votes.
+        Dataset data = Dataset.fromDataPoints(new DataLoader().loadData("Processed.csv"));
+        List<DataPoint> all = data.toDataPoints();
+        int numTraining = all.size() * 4 / 5;
+        List<DataPoint> training = all.subList(0, numTraining);
+        for (int k : new int[] {1, 3, 5, 10, 25}) {
+            assertSamePredictions(new BaselineKnn(k, training), k, training, all, "k " + k);
+        }
+    }
+
+    @Test
+    public void exactSearchMatchesBaselineOnHandBuiltCases() {
+        List<DataPoint> training = List.of(
+                point(2, 0, 0),
+                point(0, 1, 0),
+                point(1, 0, 1),
+                point(0, 1, 0),
+                point(0, 0, 1),
+                point(0, 0, 2),
+                point(0, 0, 0),
+                point(1, -1, 0),
+                point(1, 1, 1),
+                point(-1, 1, 1),
+                point(2, 3, 3),
+                point(0, 1, 0));
+        List<DataPoint> queries = new ArrayList<>(training);
+        for (double x = -1.0; x <= 3.0; x += 0.5) {
+            for (double y = -1.5; y <= 3.0; y += 0.5) {
+                queries.add(point(0, x, y));
+            }
+        }
+        for (int k = 1; k <= training.size(); k++) {
+            assertSamePredictions(new BaselineKnn(k, training), k, training, queries, "k " + k);
+        }
+    }
+
+    @Test
+    public void collapsingStoresEachDistinctRowOnce() {
+        List<DataPoint> training = List.of(point(0, 1, 1), point(1, 1, 1), point(0, 2, 2), point(0, 1, 1));
+        KNN collapsed = new KNN(3);
+        collapsed.train(training);
+        assertEquals(2, collapsed.getDistinctPointCount(), "distinct points");
+        KNN separate = new KNN(3);
+        separate.setCollapseDuplicates(false);
+        separate.train(training);
+        assertEquals(4, separate.getDistinctPointCount(), "points without collapsing");
+    }
+
+    @Test
+    public void scalerRowsAddedAfterTrainingDoNotChangePredictions() {
+        Dataset data = Dataset.fromDataPoints(new DataLoader().loadData("Processed.csv"));
+        FeatureScaler scaler = new FeatureScaler(data.getFeatureCount(), FeatureScaler.Mode.STANDARDIZE);
+        scaler.fit(data);
+        for (KNN.SearchMode mode : EXACT_MODES) {
+            KNN knn = new KNN(5);
+            knn.setSearchMode(mode);
+            knn.setScaler(scaler);
+            knn.train(data);
+            int[] before = knn.predictBatch(data);
+
+            FeatureScaler grown = scaler.copy();
+            double[] outlier = new double[data.getFeatureCount()];
+            Arrays.fill(outlier, 1e6);
+            scaler.accept(outlier);
+            assertTrue(scaler.transform(0, 1.0) != grown.transform(0, 1.0), "the caller's scaler should change");
+
+            assertArrayEquals(before, knn.predictBatch(data), mode + ": batch predictions");
+            for (int row = 0; row < data.size(); row++) {
+                assertEquals(before[row], knn.predict(data, row), mode + ": prediction of row " + row);
+            }
+            scaler = grown;
+        }
+    }
+
+    private static void assertSamePredictions(BaselineKnn baseline, int k, List<DataPoint> training,
+                                              List<DataPoint> queries, String what) {
+        double[][] vectors = new double[queries.size()][];
+        for (int q = 0; q < vectors.length; q++) {
+            vectors[q] = queries.get(q).getFeatures();
+        }
+        for (KNN.SearchMode mode : EXACT_MODES) {
+            for (boolean collapse : new boolean[] {true, false}) {
+                KNN knn = new KNN(k);
+                knn.setSearchMode(mode);
+                knn.setCollapseDuplicates(collapse);
+                knn.train(training);
+                int[] batch = knn.predictBatch(vectors);
+                String where = what + ", " + mode + (collapse ? ", collapsed" : "");
+                for (int q = 0; q < vectors.length; q++) {
+                    int expected = baseline.predict(vectors[q]);
+                    assertEquals(expected, knn.predict(vectors[q]), where + ": query " + q);
+                    assertEquals(expected, batch[q], where + ": batch query " + q);
+                }
+            }
+        }
+    }
+
+    private static DataPoint point(int label, double... features) {
+        return new DataPoint(features, label);
+    }
+
+    /**
+     * The original KNN, unchanged apart from taking its training rows in the constructor.
+     */
+    private static class BaselineKnn {
+        private final int k;
+        private final List<DataPoint> trainingData;
+
+        private record Neighbor(double distance, int label) {
+        }
+
+        BaselineKnn(int k, List<DataPoint> trainingData) {
+            this.k = k;
+            this.trainingData = trainingData;
+        }
+
+        int predict(double[] features) {
+            List<Neighbor> neighbors = new ArrayList<>();
+            for (DataPoint trainPoint : trainingData) {
+                neighbors.add(new Neighbor(euclideanDistance(features, trainPoint.getFeatures()),
+                        trainPoint.getLabel()));
+            }
+            neighbors.sort(Comparator.comparingDouble(Neighbor::distance));
+            int[] voteCounts = new int[3];
+            for (Neighbor neighbor : neighbors.subList(0, k)) {
+                if (neighbor.label() >= 0 && neighbor.label() < voteCounts.length) {
+                    voteCounts[neighbor.label()]++;
+                }
+            }
+            int majorityLabel = -1;
+            int maxVotes = -1;
+            for (int i = 0; i < voteCounts.length; i++) {
+                if (voteCounts[i] > maxVotes) {
+                    maxVotes = voteCounts[i];
+                    majorityLabel = i;
+                }
+            }
+            return majorityLabel;
+        }
+
+        private static double euclideanDistance(double[] featuresA, double[] featuresB) {
+            double sumOfSquaredDifferences = 0.0;
+            for (int i = 0; i < featuresA.length; i++) {
+                double difference = featuresA[i] - featuresB[i];
+                sumOfSquaredDifferences += difference * difference;
+            }
+            return Math.sqrt(sumOfSquaredDifferences);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package models.logisticRegression;
+
+import data.DataLoader;
+import data.Dataset;
+import data.FeatureScaler;
+import testing.Test;
+
+import java.util.Arrays;
+
+import static testing.Assert.assertEquals;
+import static testing.Assert.assertThrows;
+import static testing.Assert.assertTrue;
+
+/**
+ * Checks how LogisticRegression uses the scaler it was given, and that it rejects labels it has no class for.
+ */
+public class LogisticRegressionTest {
+
+    @Test
+    public void scalerRowsAddedAfterTrainingDoNotChangeTheModel() {
+        Dataset data = Dataset.fromDataPoints(new DataLoader().loadData("Processed.csv"));
+        FeatureScaler scaler = new FeatureScaler(data.getFeatureCount(), FeatureScaler.Mode.STANDARDIZE);
+        scaler.fit(data);
+        FeatureScaler unchanged = scaler.copy();
+
+        LogisticRegression model = newModel(scaler);
+        model.train(data);
+        LogisticRegression expected = newModel(unchanged);
+        expected.train(data);
+
+        double[] outlier = new double[data.getFeatureCount()];
+        Arrays.fill(outlier, 1e6);
+        scaler.accept(outlier);
+        assertTrue(scaler.transform(0, 1.0) != unchanged.transform(0, 1.0), "the caller's scaler should change");
+
+        assertSameModel(expected, model, data, "after training");
+        assertEquals(expected.partialFit(data), model.partialFit(data), "partialFit loss");
+        assertSameModel(expected, model, data, "after partialFit");
+    }
+
+    @Test
+    public void trainingTakesTheScalerAsItIsThen() {
+        // A scaler that is filled after setScaler() but before train() is used with its final statistics.
+        Dataset data = Dataset.fromDataPoints(new DataLoader().loadData("Processed.csv"));
+        FeatureScaler scaler = new FeatureScaler(data.getFeatureCount(), FeatureScaler.Mode.STANDARDIZE);
+        LogisticRegression model = newModel(scaler);
+        scaler.fit(data);
+        model.train(data);
+        LogisticRegression expected = newModel(scaler);
+        expected.train(data);
+        assertSameModel(expected, model, data, "after training");
+    }
+
+    @Test
+    public void lossRejectsLabelsOutsideTheClasses() {
+        LogisticRegression model = new LogisticRegression(2, 3, 0.01, 1, 42L);
+        for (int label : new int[] {-1, 3}) {
+            Dataset data = new Dataset(new double[][] {{1, 2}, {3, 4}}, new int[] {0, label});
+            IllegalArgumentException thrown = assertThrows(IllegalArgumentException.class, () -> model.loss(data),
+                    "label " + label);
+            assertTrue(thrown.getMessage().startsWith("Row 1 has label " + label), thrown.getMessage());
+        }
+    }
+
+    private static LogisticRegression newModel(FeatureScaler scaler) {
+        LogisticRegression model = new LogisticRegression(7, 3, 0.01, 3, 42L);
+        model.setScaler(scaler);
+        return model;
+    }
+
+    private static void assertSameModel(LogisticRegression expected, LogisticRegression actual, Dataset data,
+                                        String what) {
+        assertEquals(expected.loss(data), actual.loss(data), what + ": loss");
+        for (int row = 0; row < data.size(); row++) {
+            assertEquals(expected.predict(data, row), actual.predict(data, row), what + ": prediction of row " + row);
+        }
+    }
+}
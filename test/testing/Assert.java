@@ -0,0 +1,82 @@
+package testing;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * The checks the tests use. Each one throws an AssertionError with the given message when it fails.
+ */
+public final class Assert {
+
+    /**
+     * Code that is expected to throw.
+     */
+    public interface Executable {
+        void run() throws Exception;
+    }
+
+    private Assert() {
+    }
+
+    public static void fail(String message) {
+        throw new AssertionError(message);
+    }
+
+    public static void assertTrue(boolean condition, String message) {
+        if (!condition) {
+            fail(message);
+        }
+    }
+
+    public static void assertEquals(long expected, long actual, String message) {
+        if (expected != actual) {
+            fail(message + ": expected " + expected + " but was " + actual);
+        }
+    }
+
+    /**
+     * Compares two doubles exactly: NaN equals NaN, and 0.0 and -0.0 are different.
+     */
+    public static void assertEquals(double expected, double actual, String message) {
+        if (Double.doubleToLongBits(expected) != Double.doubleToLongBits(actual)) {
+            fail(message + ": expected " + expected + " but was " + actual);
+        }
+    }
+
+    public static void assertEquals(Object expected, Object actual, String message) {
+        if (!Objects.equals(expected, actual)) {
+            fail(message + ": expected <" + expected + "> but was <" + actual + ">");
+        }
+    }
+
+    public static void assertArrayEquals(int[] expected, int[] actual, String message) {
+        if (!Arrays.equals(expected, actual)) {
+            fail(message + ": the arrays differ at index " + Arrays.mismatch(expected, actual));
+        }
+    }
+
+    /**
+     * Compares two arrays exactly, element by element as assertEquals(double, double, String) does.
+     */
+    public static void assertArrayEquals(double[] expected, double[] actual, String message) {
+        if (!Arrays.equals(expected, actual)) {
+            fail(message + ": the arrays differ at index " + Arrays.mismatch(expected, actual));
+        }
+    }
+
+    /**
+     * @return The exception the code threw.
+     */
+    public static <T extends Throwable> T assertThrows(Class<T> expected, Executable code, String message) {
+        try {
+            code.run();
+        } catch (Throwable thrown) {
+            if (expected.isInstance(thrown)) {
+                return expected.cast(thrown);
+            }
+            throw new AssertionError(message + ": expected " + expected.getSimpleName() + " but got " + thrown,
+                    thrown);
+        }
+        throw new AssertionError(message + ": expected " + expected.getSimpleName() + " but nothing was thrown");
+    }
+}